@@ -1,22 +1,23 @@
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 // for sorting
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.function.BiPredicate;
-import static java.util.stream.Collectors.toMap;
-import static java.util.Map.Entry.comparingByValue;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /******************************************************************************
  * Welcome to the KreuserCore Engine v5. It provides us with some shortcuts to
@@ -67,9 +68,29 @@ public class Core {
     System.exit(0);
   }
 
-  /** Prints the current stack trace */
+  /** Prints the stack of the caller, one frame per line */
   public static void trace() {
-    System.out.println(Thread.currentThread().getStackTrace());
+    trace(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Prints the top frames of the stack of the caller, one frame per line.
+   * Frames are walked lazily, so a small depth stays cheap however deep the
+   * stack is (see CoreProfiler for sampling other threads).
+   *
+   * @param depth the most frames to print, at least 1
+   */
+  public static void trace(int depth) {
+    if (depth <= 0) {
+      throw new IllegalArgumentException("depth must be positive: " + depth);
+    }
+    String frames = StackWalker.getInstance().walk(s -> s
+      .dropWhile(f -> f.getClassName().equals(Core.class.getName())
+        && f.getMethodName().equals("trace"))
+      .limit(depth)
+      .map(f -> "\tat " + f)
+      .collect(Collectors.joining("\n")));
+    System.out.println(now() + " TRACE\n" + frames);
   }
 
   /**
@@ -139,7 +160,7 @@ public class Core {
       return;
     }
     System.out.println("Froze program, press enter to continue");
-    (new Scanner(System.in)).nextLine();
+    CoreReader.stdin().nextLine();
   }
 
   /**
@@ -151,7 +172,7 @@ public class Core {
       return;
     }
     log("Frozen: " + message + " (Press enter to continue)");
-    (new Scanner(System.in)).nextLine();
+    CoreReader.stdin().nextLine();
   }
 
   /**
@@ -196,6 +217,48 @@ public class Core {
     }
   }
 
+  /** The harness that bench() runs in, keeping every result of the run */
+  private static final CoreBench BENCH = new CoreBench();
+
+  /**
+   * Benchmarks the given operation (warming it up first) and prints its time
+   * and allocations per operation. Unlike test(), it runs even when off().
+   *
+   * @param name the name of the benchmark
+   * @param op one operation
+   * @return the result, in nanoseconds per operation
+   */
+  public static CoreBench.Result bench(String name, Runnable op) {
+    CoreBench.Result result = BENCH.run(name, op);
+    println(result.toString());
+    return result;
+  }
+
+  /**
+   * Benchmarks the given operation (warming it up first) and prints its time
+   * and allocations per operation. Every result of op is kept alive so that
+   * the JIT cannot drop the work producing it.
+   *
+   * @param name the name of the benchmark
+   * @param op one operation
+   * @return the result, in nanoseconds per operation
+   */
+  public static CoreBench.Result bench(String name, Supplier<?> op) {
+    CoreBench.Result result = BENCH.run(name, op);
+    println(result.toString());
+    return result;
+  }
+
+  /**
+   * Gets the harness that bench() runs in, to write its results to a file
+   * with writeTo() or to compare them against an earlier file with compare().
+   *
+   * @return the harness of bench()
+   */
+  public static CoreBench benchmarks() {
+    return BENCH;
+  }
+
   /***************************************************************************
    *                            SORTING
    ***************************************************************************/
@@ -211,39 +274,171 @@ public class Core {
    */
   public static <T> ArrayList<T> sort(HashMap<T, Double> toSort,
       String order) {
+    long start = CoreMetrics.start();
+    ArrayList<T> sorted = sortByValue(toSort, order);
+    SORT_NANOS.stop(start);
+    return sorted;
+  }
+
+  /** Time spent in sort(toSort, order) */
+  private static final CoreMetrics.Histogram SORT_NANOS =
+    CoreMetrics.histogram("core_sort_nanoseconds");
+
+  /**
+   * The implementation of sort(toSort, order): unboxes the values once and
+   * ranks them with argsort.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> ArrayList<T> sortByValue(HashMap<T, Double> toSort,
+      String order) {
+    boolean descending = descending(order);
+    int n = toSort.size();
+    Object[] keys = new Object[n];
+    double[] values = new double[n];
+    int i = 0;
+    for (Map.Entry<T, Double> e : toSort.entrySet()) {
+      keys[i] = e.getKey();
+      values[i++] = e.getValue();
+    }
+    int[] ranks = new CoreSort().argsort(values, new int[n], descending, false);
+    ArrayList<T> toReturn = new ArrayList<>(n);
+    for (int r : ranks) {
+      toReturn.add((T) keys[r]);
+    }
+    return toReturn;
+  }
+
+  /**
+   * Reads an order specification.
+   *
+   * @param order "max" for descending or "min" for ascending
+   * @return true if the order is descending
+   */
+  private static boolean descending(String order) {
     if (order.equals("max")) {
-      HashMap<T, Double> sorted = toSort
-        .entrySet()
-        .stream()
-        .sorted(Collections.reverseOrder(Map.Entry.comparingByValue()))
-        .collect(toMap(Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e2,
-          LinkedHashMap::new));
-      ArrayList<T> toReturn = new ArrayList<>(0);
-      for (T t : sorted.keySet()) {
-        toReturn.add(t);
-      }
-      return toReturn;
+      return true;
     } else if (!order.equals("min")) {
       throw new IllegalArgumentException("illegal order specification '"
         + order
         + "'! (only 'min' or 'max' accepted)");
     }
-    HashMap<T, Double> sorted = toSort
-      .entrySet()
-      .stream()
-      .sorted(comparingByValue())
-      .collect(toMap(e -> e.getKey(),  e -> e.getValue(),
-        (e1, e2) -> e2, LinkedHashMap::new));
-    ArrayList<T> toReturn = new ArrayList<>(0);
-    for (T t : sorted.keySet()) {
-      toReturn.add(t);
-    }
-    return toReturn;
+    return false;
+  }
+
+  /**
+   * Ranks the given values in ascending order without boxing them.
+   *
+   * @param values the values to rank
+   * @return the indices of the values in ascending order of their values
+   */
+  public static int[] argsort(double[] values) {
+    return argsort(values, "min");
   }
 
+  /**
+   * Ranks the given values in the order specified without boxing them, so
+   * that values[argsort[0]] is the smallest ("min") or largest ("max") value.
+   * Equal values keep the order of their indices. For ranking arrays of the
+   * same size again and again without allocating, keep a CoreSort.
+   *
+   * @param values the values to rank
+   * @param order specifies sorting order (max = descending, min = ascending)
+   * @return the indices of the values in the specified order of their values
+   */
+  public static int[] argsort(double[] values, String order) {
+    long start = CoreMetrics.start();
+    int[] ranks = new CoreSort().argsort(values, new int[values.length],
+      descending(order), false);
+    ARGSORT_NANOS.stop(start);
+    return ranks;
+  }
+
+  /**
+   * Ranks the given values in ascending order without boxing them.
+   *
+   * @param values the values to rank
+   * @return the indices of the values in ascending order of their values
+   */
+  public static int[] argsort(long[] values) {
+    return argsort(values, "min");
+  }
+
+  /**
+   * Ranks the given values in the order specified without boxing them (see
+   * argsort(double[], String)).
+   *
+   * @param values the values to rank
+   * @param order specifies sorting order (max = descending, min = ascending)
+   * @return the indices of the values in the specified order of their values
+   */
+  public static int[] argsort(long[] values, String order) {
+    long start = CoreMetrics.start();
+    int[] ranks = new CoreSort().argsort(values, new int[values.length],
+      descending(order), false);
+    ARGSORT_NANOS.stop(start);
+    return ranks;
+  }
+
+  /**
+   * Ranks the given values in the order specified, sorting chunks of them on
+   * all processors and then merging the chunks. Worth it from a million
+   * values up; below that it ranks on the calling thread.
+   *
+   * @param values the values to rank
+   * @param order specifies sorting order (max = descending, min = ascending)
+   * @return the indices of the values in the specified order of their values
+   */
+  public static int[] parallelArgsort(double[] values, String order) {
+    long start = CoreMetrics.start();
+    int[] ranks = new CoreSort().argsort(values, new int[values.length],
+      descending(order), true);
+    ARGSORT_NANOS.stop(start);
+    return ranks;
+  }
+
+  /**
+   * Ranks the given values in the order specified on all processors (see
+   * parallelArgsort(double[], String)).
+   *
+   * @param values the values to rank
+   * @param order specifies sorting order (max = descending, min = ascending)
+   * @return the indices of the values in the specified order of their values
+   */
+  public static int[] parallelArgsort(long[] values, String order) {
+    long start = CoreMetrics.start();
+    int[] ranks = new CoreSort().argsort(values, new int[values.length],
+      descending(order), true);
+    ARGSORT_NANOS.stop(start);
+    return ranks;
+  }
+
+  /** Time spent in argsort(values, order) and parallelArgsort */
+  private static final CoreMetrics.Histogram ARGSORT_NANOS =
+    CoreMetrics.histogram("core_argsort_nanoseconds");
+
   /***************************************************************************
    *                           INPUT/OUTPUT
    ***************************************************************************/
+  /** Calls to readFrom(filename) */
+  private static final CoreMetrics.Counter READ_CALLS =
+    CoreMetrics.counter("core_readfrom_calls_total");
+
+  /** Bytes read by readFrom(filename) */
+  private static final CoreMetrics.Counter READ_BYTES =
+    CoreMetrics.counter("core_read_bytes_total");
+
+  /** Calls to allFiles(folder) */
+  private static final CoreMetrics.Counter ALL_FILES_CALLS =
+    CoreMetrics.counter("core_allfiles_calls_total");
+
+  /** Calls to writeTo(filename, contents) */
+  private static final CoreMetrics.Counter WRITE_CALLS =
+    CoreMetrics.counter("core_writeto_calls_total");
+
+  /** Bytes written by writeTo(filename, contents) */
+  private static final CoreMetrics.Counter WRITE_BYTES =
+    CoreMetrics.counter("core_written_bytes_total");
+
   /**
    * Reads from the given file stores the contents into an string arraylist
    *
@@ -263,35 +458,73 @@ public class Core {
       readFrom.add(reader.nextLine());
     }
     reader.close();
+    READ_CALLS.increment();
+    if (CoreMetrics.isOn()) {
+      READ_BYTES.add(new File(filename).length());
+    }
     return readFrom;
   }
 
   /**
-   * Reads from the terminal until done and returns the lines in a list
+   * Reads from the given file and stores the contents into an string
+   * arraylist, deduplicating the lines through the given pool: lines that
+   * repeat (in this file or in others read through the same pool) become the
+   * same String, and a line found in the pool creates no new String.
+   *
+   * Lines are split like CoreReader splits them: at '\n', with a '\r'
+   * before it dropped. Unlike the Scanner of readFrom(filename), a lone '\r'
+   * and the Unicode separators U+0085, U+2028 and U+2029 do not end a line,
+   * so files that use them read as fewer, longer lines.
+   *
+   * @param filename is the file to read from
+   * @param pool is the pool the lines are deduplicated through
+   * @return a list filled with the contents of that file
+   */
+  public static ArrayList<String> readFrom(String filename,
+      CoreInterner pool) {
+    ArrayList<String> readFrom = new ArrayList<>(0);
+    try (FileInputStream in = new FileInputStream(filename)) {
+      CoreReader reader = new CoreReader(in);
+      while (reader.hasNextLine()) {
+        readFrom.add(reader.nextLine(pool));
+      }
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+      exit("Could not find file " + filename + "!");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    READ_CALLS.increment();
+    if (CoreMetrics.isOn()) {
+      READ_BYTES.add(new File(filename).length());
+    }
+    return readFrom;
+  }
+
+  /**
+   * Reads from the terminal until done and returns the lines in a list. Uses
+   * the shared CoreReader of System.in, which stays open.
    *
    * @return a list filled with the contents of what was inputted into the
    *         terminal
    */
   public static ArrayList<String> readTerminal() {
     ArrayList<String> readTerminal = new ArrayList<>(0);
-    Scanner terminal = new Scanner(System.in);
+    CoreReader terminal = CoreReader.stdin();
     while (terminal.hasNextLine()) {
       readTerminal.add(terminal.nextLine());
     }
-    terminal.close();
     return readTerminal;
   }
 
   /**
-   * One instance of terminal reading
+   * One instance of terminal reading. Uses the shared CoreReader of
+   * System.in, so it can be called again (System.in stays open).
    *
    * @return the latest thing typed into the terminal
    */
   public static String read() {
-    Scanner sc = new Scanner(System.in);
-    String read = sc.nextLine();
-    sc.close();
-    return read;
+    return CoreReader.stdin().nextLine();
   }
 
   /**
@@ -303,6 +536,7 @@ public class Core {
    * @return the filenames mapped to string arraylist housing their contents
    */
   public static HashMap<String, ArrayList<String>> allFiles(String folder) {
+    ALL_FILES_CALLS.increment();
     HashMap<String, ArrayList<String>> allFiles = new HashMap<>();
     File[] filesList = (new File(folder)).listFiles();
     if (!folder.endsWith("/")) {
@@ -317,6 +551,32 @@ public class Core {
     return allFiles;
   }
 
+  /**
+   * Gets all files from a given folder like allFiles(folder), deduplicating
+   * the lines of every file through the given pool (see readFrom(filename,
+   * pool)), so that values repeated across the files are held once.
+   *
+   * @param folder is the folder to read files from
+   * @param pool is the pool the lines are deduplicated through
+   * @return the filenames mapped to string arraylist housing their contents
+   */
+  public static HashMap<String, ArrayList<String>> allFiles(String folder,
+      CoreInterner pool) {
+    ALL_FILES_CALLS.increment();
+    HashMap<String, ArrayList<String>> allFiles = new HashMap<>();
+    File[] filesList = (new File(folder)).listFiles();
+    if (!folder.endsWith("/")) {
+      folder += "/";
+    }
+    for (File file : filesList) {
+      if (file.isFile()) {
+        String name = file.getName();
+        allFiles.put(name, readFrom(folder + name, pool));
+      }
+    }
+    return allFiles;
+  }
+
   /**
    * Retrieves a list of all the file names in the given folder
    *
@@ -348,6 +608,24 @@ public class Core {
       writer.println(line);
     }
     writer.close();
+    WRITE_CALLS.increment();
+    if (CoreMetrics.isOn()) {
+      WRITE_BYTES.add(new File(filename).length());
+    }
+  }
+
+  /**
+   * Creates a pipeline that reads every file in the given folder, transforms
+   * its lines and writes them to a file of the same name in the other folder,
+   * overlapping the reads, transforms and writes of many files at once (see
+   * CorePipeline).
+   *
+   * @param from is the folder to read files from
+   * @param to is the folder to write the transformed files to
+   * @return the pipeline, to be configured and then run()
+   */
+  public static CorePipeline pipeline(String from, String to) {
+    return new CorePipeline(from, to);
   }
 
   /***************************************************************************
@@ -417,6 +695,7 @@ public class Core {
    * @param start is the prefix to sart cutting from
    * @param end is the suffix to stop cutting from
    * @return the substring that lies between braces[0] and braces[1] disclusive
+   * @see CoreCapture for capturing with the same delimiters over many strings
    */
   public static String capture(String s, String start, String end) {
     if (start.equals("")) {
@@ -512,13 +791,311 @@ public class Core {
     }
     // min
     for (int i = 1; i < n; i++) {
-      if (t.compareTo(ts[i]) < 0) {
+      if (t.compareTo(ts[i]) > 0) {
         t = ts[i];
       }
     }
     return t;
   }
 
+  /*
+   * The scans below are written to be JIT-friendly: four comparisons are
+   * OR-ed together per step instead of branching on each, counting uses a
+   * conditional instead of an if and min/max use Math.min/Math.max. Whether
+   * a loop is also vectorized is up to the JIT; the early exits of contains
+   * keep it from doing so.
+   */
+
+  /**
+   * Confirms whether the given array contains the given value
+   *
+   * @param ts the array to check whether it contains t
+   * @param t is the value to check whether it is in the array
+   * @return true if the array contains the given value
+   */
+  public static boolean contains(int[] ts, int t) {
+    int n = ts.length;
+    int i = 0;
+    for (; i + 3 < n; i += 4) {
+      if ((ts[i] == t) | (ts[i + 1] == t) | (ts[i + 2] == t)
+          | (ts[i + 3] == t)) {
+        return true;
+      }
+    }
+    for (; i < n; i++) {
+      if (ts[i] == t) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Confirms whether the given array contains the given value
+   *
+   * @param ts the array to check whether it contains t
+   * @param t is the value to check whether it is in the array
+   * @return true if the array contains the given value
+   */
+  public static boolean contains(long[] ts, long t) {
+    int n = ts.length;
+    int i = 0;
+    for (; i + 3 < n; i += 4) {
+      if ((ts[i] == t) | (ts[i + 1] == t) | (ts[i + 2] == t)
+          | (ts[i + 3] == t)) {
+        return true;
+      }
+    }
+    for (; i < n; i++) {
+      if (ts[i] == t) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Confirms whether the given array contains the given value (compared with
+   * ==, so NaN is never found)
+   *
+   * @param ts the array to check whether it contains t
+   * @param t is the value to check whether it is in the array
+   * @return true if the array contains the given value
+   */
+  public static boolean contains(double[] ts, double t) {
+    int n = ts.length;
+    int i = 0;
+    for (; i + 3 < n; i += 4) {
+      if ((ts[i] == t) | (ts[i + 1] == t) | (ts[i + 2] == t)
+          | (ts[i + 3] == t)) {
+        return true;
+      }
+    }
+    for (; i < n; i++) {
+      if (ts[i] == t) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Counts the amount of instances of t in ts
+   *
+   * @param ts the array to check how many are t
+   * @param t is the value to check how many are in the array
+   * @return number of occurences of t in ts
+   */
+  public static int count(int[] ts, int t) {
+    int count = 0;
+    for (int i = 0; i < ts.length; i++) {
+      count += ts[i] == t ? 1 : 0;
+    }
+    return count;
+  }
+
+  /**
+   * Counts the amount of instances of t in ts
+   *
+   * @param ts the array to check how many are t
+   * @param t is the value to check how many are in the array
+   * @return number of occurences of t in ts
+   */
+  public static int count(long[] ts, long t) {
+    int count = 0;
+    for (int i = 0; i < ts.length; i++) {
+      count += ts[i] == t ? 1 : 0;
+    }
+    return count;
+  }
+
+  /**
+   * Counts the amount of instances of t in ts (compared with ==, so NaN is
+   * never counted)
+   *
+   * @param ts the array to check how many are t
+   * @param t is the value to check how many are in the array
+   * @return number of occurences of t in ts
+   */
+  public static int count(double[] ts, double t) {
+    int count = 0;
+    for (int i = 0; i < ts.length; i++) {
+      count += ts[i] == t ? 1 : 0;
+    }
+    return count;
+  }
+
+  /**
+   * Retrieves the mininum or maximum value in the given array
+   *
+   * @param ts is the array of values to find min/max from
+   * @param minMax specifies that we seek the max value (if minMax = "max").
+   *        Else we assume min is wanted
+   * @return the min or max value in ts
+   */
+  public static int minMax(int[] ts, String minMax) {
+    return minMax.equals("max") ? max(ts) : min(ts);
+  }
+
+  /**
+   * Retrieves the minimum value in the given array
+   *
+   * @param ts is the array of values to find the min from
+   * @return the min value in ts
+   */
+  public static int min(int[] ts) {
+    int min = ts[0];
+    for (int i = 1; i < ts.length; i++) {
+      min = Math.min(min, ts[i]);
+    }
+    return min;
+  }
+
+  /**
+   * Retrieves the maximum value in the given array
+   *
+   * @param ts is the array of values to find the max from
+   * @return the max value in ts
+   */
+  public static int max(int[] ts) {
+    int max = ts[0];
+    for (int i = 1; i < ts.length; i++) {
+      max = Math.max(max, ts[i]);
+    }
+    return max;
+  }
+
+  /**
+   * Retrieves the mininum or maximum value in the given array
+   *
+   * @param ts is the array of values to find min/max from
+   * @param minMax specifies that we seek the max value (if minMax = "max").
+   *        Else we assume min is wanted
+   * @return the min or max value in ts
+   */
+  public static long minMax(long[] ts, String minMax) {
+    return minMax.equals("max") ? max(ts) : min(ts);
+  }
+
+  /**
+   * Retrieves the minimum value in the given array
+   *
+   * @param ts is the array of values to find the min from
+   * @return the min value in ts
+   */
+  public static long min(long[] ts) {
+    long min = ts[0];
+    for (int i = 1; i < ts.length; i++) {
+      min = Math.min(min, ts[i]);
+    }
+    return min;
+  }
+
+  /**
+   * Retrieves the maximum value in the given array
+   *
+   * @param ts is the array of values to find the max from
+   * @return the max value in ts
+   */
+  public static long max(long[] ts) {
+    long max = ts[0];
+    for (int i = 1; i < ts.length; i++) {
+      max = Math.max(max, ts[i]);
+    }
+    return max;
+  }
+
+  /**
+   * Retrieves the mininum or maximum value in the given array
+   *
+   * @param ts is the array of values to find min/max from
+   * @param minMax specifies that we seek the max value (if minMax = "max").
+   *        Else we assume min is wanted
+   * @return the min or max value in ts (NaN if ts contains NaN)
+   */
+  public static double minMax(double[] ts, String minMax) {
+    return minMax.equals("max") ? max(ts) : min(ts);
+  }
+
+  /**
+   * Retrieves the minimum value in the given array
+   *
+   * @param ts is the array of values to find the min from
+   * @return the min value in ts (NaN if ts contains NaN)
+   */
+  public static double min(double[] ts) {
+    double min = ts[0];
+    for (int i = 1; i < ts.length; i++) {
+      min = Math.min(min, ts[i]);
+    }
+    return min;
+  }
+
+  /**
+   * Retrieves the maximum value in the given array
+   *
+   * @param ts is the array of values to find the max from
+   * @return the max value in ts (NaN if ts contains NaN)
+   */
+  public static double max(double[] ts) {
+    double max = ts[0];
+    for (int i = 1; i < ts.length; i++) {
+      max = Math.max(max, ts[i]);
+    }
+    return max;
+  }
+
+  /**
+   * Retrieves both the minimum and maximum value in the given array in a
+   * single pass
+   *
+   * @param ts is the array of values to find the min and max from
+   * @return an array holding {min, max}
+   */
+  public static int[] minAndMax(int[] ts) {
+    int min = ts[0];
+    int max = ts[0];
+    for (int i = 1; i < ts.length; i++) {
+      min = Math.min(min, ts[i]);
+      max = Math.max(max, ts[i]);
+    }
+    return new int[]{min, max};
+  }
+
+  /**
+   * Retrieves both the minimum and maximum value in the given array in a
+   * single pass
+   *
+   * @param ts is the array of values to find the min and max from
+   * @return an array holding {min, max}
+   */
+  public static long[] minAndMax(long[] ts) {
+    long min = ts[0];
+    long max = ts[0];
+    for (int i = 1; i < ts.length; i++) {
+      min = Math.min(min, ts[i]);
+      max = Math.max(max, ts[i]);
+    }
+    return new long[]{min, max};
+  }
+
+  /**
+   * Retrieves both the minimum and maximum value in the given array in a
+   * single pass
+   *
+   * @param ts is the array of values to find the min and max from
+   * @return an array holding {min, max} (both NaN if ts contains NaN)
+   */
+  public static double[] minAndMax(double[] ts) {
+    double min = ts[0];
+    double max = ts[0];
+    for (int i = 1; i < ts.length; i++) {
+      min = Math.min(min, ts[i]);
+      max = Math.max(max, ts[i]);
+    }
+    return new double[]{min, max};
+  }
+
   @SuppressWarnings("unchecked")
   public static <T> ArrayList<T[]> uniquePairs(ArrayList<T> l) {
     ArrayList<T[]> uniquePairs = new ArrayList<>(0);
@@ -541,6 +1118,19 @@ public class Core {
    * cells if those cells contain the same integer.
    */
   public static <T> ArrayList<ArrayList<T>> group(HashMap<T, ArrayList<T>> adj, BiPredicate<T, T> predicate) {
+    long start = CoreMetrics.start();
+    ArrayList<ArrayList<T>> groups = groupBy(adj, predicate);
+    GROUP_NANOS.stop(start);
+    return groups;
+  }
+
+  /** Time spent in group(adj, predicate) */
+  private static final CoreMetrics.Histogram GROUP_NANOS =
+    CoreMetrics.histogram("core_group_nanoseconds");
+
+  /** The implementation of group(adj, predicate) */
+  private static <T> ArrayList<ArrayList<T>> groupBy(
+      HashMap<T, ArrayList<T>> adj, BiPredicate<T, T> predicate) {
     ArrayList<T> all = new ArrayList<T>(adj.size());
     for (T t : adj.keySet()) {
       all.add(t);
@@ -568,87 +1158,29 @@ public class Core {
 
 
   /**
-   * Time-based random number generation
+   * Generates the given amount of random doubles in [0, 1) using the calling
+   * thread's CoreRandom.
+   *
    * @param size the amount of random doubles to generate
+   * @return a list of size random doubles
    */
   public static LinkedList<Double> random(int size) {
-    // create a list of random doubles
-    long time = Core.time();
-    char[] c = (time+"").toCharArray();
-    int[] last = new int[10];
-    boolean[] b = new boolean[10];
-    // fill in first
-    last[8] = last[9] = -1;
-    for (int i = 0; i < 8; i++) {
-      int v = c[12-i] - '0';
-      if (!b[v]) {
-        last[i] = v;
-        b[v] = true;
-      } else last[i] = -1;
-    }
-    // fill in rest
-    loop:
-    for (int v = 0; v < 10; v++) {
-      if (b[v]) continue loop;
-      int pos = v;
-      while (last[pos] != -1) {
-        pos = last[pos];
-      }
-      last[pos] = v;
-    }
-    
-    // calc how many resses
-    int m = (size * 16) / 10 + 1; // 31 number s * 16 = 496 ~ 50 indices ~ 25 resses
-    int n = m/2;
-    // now for random number generation
-    
+    double[] r = new double[size];
+    random(r);
     LinkedList<Double> random = new LinkedList<>();
-    char[] numb = new char[16];
-    int index = 0;
-    for (int res = 0; res < n; res++) {
-      
-      // 1) index insert
-      int[] next = new int[10]; // new version of a
-      for (int i = 0; i < 10; i++) {
-        // put last[i] in pos of last[9-i]
-        next[ last[9-i] ] = last[i];
-        numb[index] = (char)(last[i]+'0');
-        //Core.println(numb[index]);
-        index++;
-        if (index == 16) {
-          // create double from string
-          random.add(Double.parseDouble("0." + new String(numb)));
-          index = 0;
-        }
-      }
-      if (res+2 == n) {
-        return random;
-      }
-      // save last
-      last = next;
-      next = new int[10];// new version of a
-      // 2) index + (v+i+res*i^2)
-      b = new boolean[10];
-      for (int i = 0; i < 10; i++) {
-        int v = last[i];
-        int pos = (v+v*i+((size/4)%(res+1))*i*i)%10;
-        while (b[pos]) {
-          pos = (pos+1)%10;
-        }
-        b[pos] = true;
-        next[pos] = v;
-        numb[index] = (char)(last[i]+'0');
-        //Core.println(numb[index]);
-        index++;
-        if (index == 16) {
-          // create double from string
-          random.add(Double.parseDouble("0." + new String(numb)));
-          index = 0;
-        }
-      }
-      last = next;
+    for (double d : r) {
+      random.add(d);
     }
     return random;
   }
-}
 
+  /**
+   * Fills the given array with random doubles in [0, 1) using the calling
+   * thread's CoreRandom. Unlike random(int), this does not allocate.
+   *
+   * @param into the array to fill
+   */
+  public static void random(double[] into) {
+    CoreRandom.current().fill(into);
+  }
+}
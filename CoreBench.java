@@ -0,0 +1,382 @@
+import com.sun.management.ThreadMXBean;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.function.Supplier;
+
+/*******************************************************************************
+ *
+ * CoreBench is a small in-process micro-benchmark harness, for checking a hot
+ * path without setting up a JMH project:
+ *
+ *   Core.bench("sort 1000", () -> Core.argsort(values));
+ *
+ * The library offers:
+ *  * Warmup: the operation runs for a while first so that the JIT compiles
+ *    it, which also tells how long one operation takes.
+ *  * Samples: operations are timed with System.nanoTime() in batches that
+ *    take about 10 microseconds each, well above the resolution of the timer.
+ *    Every result of a Supplier is stored in an array that outlives the
+ *    batch, and each sample ends with one volatile write, so that the JIT
+ *    cannot drop the work producing the results. A volatile write per
+ *    operation would add a locked instruction to every operation instead.
+ *  * Statistics per operation: mean, standard deviation and the 50th, 90th
+ *    and 99th percentiles of the samples.
+ *  * Allocations per operation from the per-thread allocation counter of the
+ *    JVM's ThreadMXBean (NaN where the JVM does not count them).
+ *  * writeTo() saves the results of a harness to a tab-separated file, and
+ *    compare() reports how the results changed against such a file.
+ *
+ * A harness is meant for a single thread; results measure the calling thread
+ * only.
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreBench {
+
+  /** The target duration of one sample, in nanoseconds */
+  private static final long SAMPLE_NANOS = 10_000;
+
+  /** The most samples kept per benchmark */
+  private static final int MAX_SAMPLES = 1 << 20;
+
+  /** The fewest samples taken per benchmark, however slow it is */
+  private static final int MIN_SAMPLES = 5;
+
+  /** Keeps results alive so the JIT cannot drop the work producing them */
+  private static volatile Object sink;
+
+  /** The mask of the slots that keep the results of a batch */
+  private static final int KEEP_MASK = 1023;
+
+  /** The results of the current batch, published to sink once per sample */
+  private final Object[] keep = new Object[KEEP_MASK + 1];
+
+  /** The thread bean with allocation counters, or null if unsupported */
+  private static final ThreadMXBean THREADS =
+    ManagementFactory.getThreadMXBean() instanceof ThreadMXBean
+      ? (ThreadMXBean) ManagementFactory.getThreadMXBean()
+      : null;
+
+  /** The time spent warming up each benchmark, in nanoseconds */
+  private final long warmupNanos;
+
+  /** The time spent measuring each benchmark, in nanoseconds */
+  private final long measureNanos;
+
+  /** The results so far, in order */
+  private final ArrayList<Result> results = new ArrayList<>();
+
+  /** Standard constructor, warming up for 200 ms and measuring for 500 ms */
+  public CoreBench() {
+    this(200, 500);
+  }
+
+  /**
+   * Constructor using the given durations.
+   *
+   * @param warmupMillis the time spent warming up each benchmark
+   * @param measureMillis the time spent measuring each benchmark
+   */
+  public CoreBench(long warmupMillis, long measureMillis) {
+    this.warmupNanos = warmupMillis * 1_000_000;
+    this.measureNanos = measureMillis * 1_000_000;
+  }
+
+  /**
+   * Benchmarks the given operation.
+   *
+   * @param name the name of the benchmark
+   * @param op one operation
+   * @return the result
+   */
+  public Result run(String name, Runnable op) {
+    return run(name, () -> {
+      op.run();
+      return null;
+    });
+  }
+
+  /**
+   * Benchmarks the given operation, keeping every result it returns alive.
+   *
+   * @param name the name of the benchmark
+   * @param op one operation
+   * @return the result
+   */
+  public Result run(String name, Supplier<?> op) {
+    // warmup, which also estimates the time per operation
+    long start = System.nanoTime();
+    long end = start + warmupNanos;
+    long warmupOps = 0;
+    long now;
+    do {
+      sink = op.get();
+      warmupOps++;
+      now = System.nanoTime();
+    } while (now < end);
+    double estimate = Math.max(1.0, (now - start) / (double) warmupOps);
+    int batch = (int) Math.min(1 << 20, Math.ceil(SAMPLE_NANOS / estimate));
+    // allocate everything before measuring so that it is not counted
+    int capacity = (int) Math.min(MAX_SAMPLES,
+      Math.max(MIN_SAMPLES, 2 * measureNanos / (batch * estimate) + 16));
+    double[] samples = new double[capacity];
+    int k = 0;
+    long bytes = allocated();
+    end = System.nanoTime() + measureNanos;
+    int used = Math.min(batch, keep.length);
+    do {
+      long t0 = System.nanoTime();
+      for (int i = 0; i < batch; i++) {
+        // a plain store into an array the JIT cannot see through
+        keep[i & KEEP_MASK] = op.get();
+      }
+      now = System.nanoTime();
+      samples[k++] = (now - t0) / (double) batch;
+      sink = keep[0];
+      Arrays.fill(keep, 0, used, null);
+    } while ((now < end || k < MIN_SAMPLES) && k < capacity);
+    long after = allocated();
+    long ops = (long) k * batch;
+    Result result = new Result(name, ops, Arrays.copyOf(samples, k),
+      bytes < 0 || after < 0 ? Double.NaN : (after - bytes) / (double) ops);
+    results.add(result);
+    return result;
+  }
+
+  /**
+   * Retrieves the results so far.
+   *
+   * @return the results, in the order they were run
+   */
+  public List<Result> results() {
+    return new ArrayList<>(results);
+  }
+
+  /**
+   * Retrieves the amount of bytes allocated by this thread so far.
+   *
+   * @return the allocated bytes or -1 if the JVM does not count them
+   */
+  @SuppressWarnings("deprecation")
+  private static long allocated() {
+    if (THREADS == null || !THREADS.isThreadAllocatedMemorySupported()
+        || !THREADS.isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    // -1 as well if counting was switched off in the meantime
+    return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /***************************************************************************
+   *                              RESULTS
+   ***************************************************************************/
+  /** The statistics of one benchmark, in nanoseconds per operation */
+  public static class Result {
+
+    /** The name of the benchmark */
+    private final String name;
+
+    /** The amount of operations measured */
+    private final long ops;
+
+    /** The statistics of the samples */
+    private final double mean, stddev, p50, p90, p99;
+
+    /** The bytes allocated per operation */
+    private final double bytesPerOp;
+
+    private Result(String name, long ops, double[] samples,
+        double bytesPerOp) {
+      this.name = name;
+      this.ops = ops;
+      this.bytesPerOp = bytesPerOp;
+      double sum = 0;
+      for (double s : samples) {
+        sum += s;
+      }
+      mean = sum / samples.length;
+      double squares = 0;
+      for (double s : samples) {
+        squares += (s - mean) * (s - mean);
+      }
+      stddev = samples.length > 1
+        ? Math.sqrt(squares / (samples.length - 1)) : 0;
+      Arrays.sort(samples);
+      p50 = percentile(samples, 50);
+      p90 = percentile(samples, 90);
+      p99 = percentile(samples, 99);
+    }
+
+    private Result(String name, long ops, double mean, double stddev,
+        double p50, double p90, double p99, double bytesPerOp) {
+      this.name = name;
+      this.ops = ops;
+      this.mean = mean;
+      this.stddev = stddev;
+      this.p50 = p50;
+      this.p90 = p90;
+      this.p99 = p99;
+      this.bytesPerOp = bytesPerOp;
+    }
+
+    /**
+     * Gets the given percentile of the sorted samples by the nearest rank.
+     *
+     * @return the sample at the percentile
+     */
+    private static double percentile(double[] sorted, double p) {
+      int rank = (int) Math.ceil(p / 100 * sorted.length);
+      return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /** @return the name of the benchmark */
+    public String name() {
+      return name;
+    }
+
+    /** @return the amount of operations measured */
+    public long ops() {
+      return ops;
+    }
+
+    /** @return the mean time per operation in nanoseconds */
+    public double mean() {
+      return mean;
+    }
+
+    /** @return the standard deviation of the samples in nanoseconds */
+    public double stddev() {
+      return stddev;
+    }
+
+    /** @return the median of the samples in nanoseconds */
+    public double p50() {
+      return p50;
+    }
+
+    /** @return the 90th percentile of the samples in nanoseconds */
+    public double p90() {
+      return p90;
+    }
+
+    /** @return the 99th percentile of the samples in nanoseconds */
+    public double p99() {
+      return p99;
+    }
+
+    /** @return the bytes allocated per operation, or NaN if not counted */
+    public double bytesPerOp() {
+      return bytesPerOp;
+    }
+
+    /**
+     * Formats the result as one line.
+     *
+     * @return the result as one line
+     */
+    @Override
+    public String toString() {
+      return String.format("%-32s %12.1f ns/op +- %-10.1f p50 %-10.1f "
+        + "p90 %-10.1f p99 %-10.1f %10.1f B/op", name, mean, stddev, p50, p90,
+        p99, bytesPerOp);
+    }
+
+    /**
+     * Formats the result as a line of the file written by writeTo().
+     *
+     * @return the result as tab-separated values
+     */
+    private String toRow() {
+      return name + "\t" + ops + "\t" + mean + "\t" + stddev + "\t" + p50
+        + "\t" + p90 + "\t" + p99 + "\t" + bytesPerOp;
+    }
+  }
+
+  /***************************************************************************
+   *                               FILES
+   ***************************************************************************/
+  /** The header line of the file written by writeTo() */
+  private static final String HEADER =
+    "name\tops\tmean_ns\tstddev_ns\tp50_ns\tp90_ns\tp99_ns\tbytes_per_op";
+
+  /**
+   * Writes the results so far to the given file as tab-separated values,
+   * with a header line, for comparing later runs against.
+   *
+   * @param filename the file to write the results to
+   */
+  public void writeTo(String filename) {
+    try (PrintWriter writer = new PrintWriter(filename)) {
+      writer.println(HEADER);
+      for (Result r : results) {
+        writer.println(r.toRow());
+      }
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Reads the results written by writeTo().
+   *
+   * @param filename the file to read the results from
+   * @return the results by name, in the order of the file
+   */
+  public static Map<String, Result> readFrom(String filename) {
+    Map<String, Result> results = new LinkedHashMap<>();
+    try (Scanner reader = new Scanner(new File(filename))) {
+      while (reader.hasNextLine()) {
+        String line = reader.nextLine();
+        if (line.isEmpty() || line.equals(HEADER)) {
+          continue;
+        }
+        String[] f = line.split("\t");
+        results.put(f[0], new Result(f[0], Long.parseLong(f[1]),
+          Double.parseDouble(f[2]), Double.parseDouble(f[3]),
+          Double.parseDouble(f[4]), Double.parseDouble(f[5]),
+          Double.parseDouble(f[6]), Double.parseDouble(f[7])));
+      }
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+    }
+    return results;
+  }
+
+  /**
+   * Prints how the mean of every result so far changed against the results
+   * in the given file (written by writeTo() on an earlier run).
+   *
+   * @param filename the file holding the baseline results
+   * @param tolerance the fraction by which a mean may grow before it counts
+   *        as a regression, such as 0.1 for 10%
+   * @return the names of the benchmarks that regressed
+   */
+  public List<String> compare(String filename, double tolerance) {
+    Map<String, Result> baseline = readFrom(filename);
+    List<String> regressions = new ArrayList<>();
+    for (Result r : results) {
+      Result b = baseline.get(r.name);
+      if (b == null) {
+        Core.println(String.format("%-32s %12.1f ns/op (new)", r.name,
+          r.mean));
+        continue;
+      }
+      double change = r.mean / b.mean - 1;
+      boolean regressed = change > tolerance;
+      if (regressed) {
+        regressions.add(r.name);
+      }
+      Core.println(String.format("%-32s %12.1f ns/op vs %12.1f %+8.1f%%%s",
+        r.name, r.mean, b.mean, 100 * change, regressed ? " REGRESSED" : ""));
+    }
+    return regressions;
+  }
+}
@@ -0,0 +1,312 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+/*******************************************************************************
+ *
+ * CoreBenchmarks measures the hot paths of Core and CoreList next to their
+ * closest JDK counterparts. It runs headless from the command line:
+ *
+ *   javac *.java && java CoreBenchmarks [maxSize] [filter] [resultFile]
+ *
+ * maxSize (default 10000000) is the largest input size; sizes go from 10 up to
+ * it in powers of 10. filter only runs benchmarks whose name contains it. If
+ * resultFile exists, the run is compared against it, otherwise the results
+ * are written to it (see CoreBench).
+ *
+ * Every line reports the benchmark, the input size, the mean and the 99th
+ * percentile of the time per element and the bytes allocated per element
+ * (taken from the JVM's per-thread allocation counter, which is what a GC
+ * profiler reports as the allocation rate).
+ *
+ * The same operations back the JMH benchmarks of the jmh module (see
+ * operation()), which run them in forked JVMs with the GC profiler:
+ *
+ *   mvn -q package && java -jar jmh/target/benchmarks.jar
+ *
+ * Benchmarks that are quadratic in the size (removeKey, remove and group) are
+ * capped so that a run stays in the order of minutes, and so are the ones
+ * that hold a map or a file of the size (sort and readFrom); see maxSize().
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreBenchmarks {
+
+  /** The harness, warming up and measuring each benchmark for 200 ms */
+  private static final CoreBench BENCH = new CoreBench(200, 200);
+
+  /** The benchmarks, each next to its closest JDK counterpart */
+  public static final String[] NAMES = {
+    "CoreList.add", "ArrayList.add",
+    "CoreList.removeKey", "ArrayList.remove",
+    "CoreList.sorted", "Collections.sort(copy)",
+    "Core.sort", "ArrayList.sort(byValue)",
+    "Core.group",
+    "Core.readFrom", "Files.readAllLines",
+    "Core.random", "CoreRandom.fill", "SplittableRandom.nextDouble"
+  };
+
+  /** The keys of the last size asked for, shared by its benchmarks */
+  private static Integer[] lastKeys = new Integer[0];
+
+  /**
+   * Runs the benchmarks.
+   *
+   * @param args optionally the maximum size, a benchmark name filter and a
+   *        result file
+   */
+  public static void main(String[] args) {
+    int maxSize = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+    String filter = args.length > 1 ? args[1] : "";
+    Core.println(String.format("%-32s %10s %12s %12s %12s", "benchmark",
+      "size", "ns/element", "p99", "B/element"));
+    for (int size = 10; size <= maxSize; size *= 10) {
+      for (String name : NAMES) {
+        if (name.contains(filter) && size <= maxSize(name)) {
+          run(name, size, operation(name, size));
+        }
+      }
+    }
+    if (args.length > 2) {
+      if (new File(args[2]).exists()) {
+        BENCH.compare(args[2], 0.1);
+      } else {
+        BENCH.writeTo(args[2]);
+      }
+    }
+  }
+
+  /**
+   * Gets the largest size the given benchmark runs at.
+   *
+   * @param name the name of the benchmark
+   * @return the largest size it runs at
+   */
+  public static int maxSize(String name) {
+    switch (name) {
+      case "CoreList.removeKey":
+      case "ArrayList.remove":
+        return 100_000;
+      case "Core.group":
+        return 10_000;
+      case "Core.sort":
+      case "ArrayList.sort(byValue)":
+      case "Core.readFrom":
+      case "Files.readAllLines":
+        return 1_000_000;
+      default:
+        return 10_000_000;
+    }
+  }
+
+  /**
+   * Creates one operation of the given benchmark on an input of the given
+   * size, building its input up front so that the operation itself is what
+   * gets measured. Every operation returns its result, to be kept alive.
+   *
+   * @param name the name of the benchmark (see NAMES)
+   * @param n the input size of one operation
+   * @return the operation
+   */
+  public static Supplier<Object> operation(String name, int n) {
+    Integer[] keys = keys(n);
+    switch (name) {
+
+      // add
+      case "CoreList.add":
+        return () -> {
+          CoreList<Integer> l = new CoreList<>();
+          for (Integer k : keys) {
+            l.add(k);
+          }
+          return l;
+        };
+      case "ArrayList.add":
+        return () -> {
+          ArrayList<Integer> l = new ArrayList<>();
+          for (Integer k : keys) {
+            l.add(k);
+          }
+          return l;
+        };
+
+      // remove every key in a shuffled order, so that each removal searches
+      // and shifts about half of the list
+      case "CoreList.removeKey":
+        return () -> {
+          CoreList<Integer> l = new CoreList<>(keys);
+          for (Integer k : keys) {
+            l.removeKey(k);
+          }
+          return l;
+        };
+      case "ArrayList.remove":
+        return () -> {
+          ArrayList<Integer> l = new ArrayList<>(List.of(keys));
+          for (Integer k : keys) {
+            l.remove(k);
+          }
+          return l;
+        };
+
+      // sorted
+      case "CoreList.sorted": {
+        CoreList<Integer> coreList = new CoreList<>(keys);
+        return () -> coreList.sorted();
+      }
+      case "Collections.sort(copy)": {
+        ArrayList<Integer> arrayList = new ArrayList<>(List.of(keys));
+        return () -> {
+          ArrayList<Integer> copy = new ArrayList<>(arrayList);
+          Collections.sort(copy);
+          return copy;
+        };
+      }
+
+      // sort by value
+      case "Core.sort": {
+        HashMap<Integer, Double> scores = scores(keys);
+        return () -> Core.sort(scores, "max");
+      }
+      case "ArrayList.sort(byValue)": {
+        HashMap<Integer, Double> scores = scores(keys);
+        return () -> {
+          ArrayList<Integer> sorted = new ArrayList<>(scores.keySet());
+          sorted.sort((a, b) -> Double.compare(scores.get(b), scores.get(a)));
+          return sorted;
+        };
+      }
+
+      // group a chain where every second link is allowed
+      case "Core.group": {
+        HashMap<Integer, ArrayList<Integer>> adj = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+          ArrayList<Integer> neighbours = new ArrayList<>();
+          if (i > 0) {
+            neighbours.add(i - 1);
+          }
+          if (i < n - 1) {
+            neighbours.add(i + 1);
+          }
+          adj.put(i, neighbours);
+        }
+        return () -> Core.group(adj, (a, b) -> Math.min(a, b) % 2 == 0);
+      }
+
+      // readFrom
+      case "Core.readFrom": {
+        String file = file(n);
+        return () -> Core.readFrom(file);
+      }
+      case "Files.readAllLines": {
+        File file = new File(file(n));
+        return () -> {
+          try {
+            return Files.readAllLines(file.toPath());
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        };
+      }
+
+      // random
+      case "Core.random":
+        return () -> Core.random(n);
+      case "CoreRandom.fill":
+        return () -> {
+          double[] d = new double[n];
+          CoreRandom.current().fill(d);
+          return d;
+        };
+      case "SplittableRandom.nextDouble":
+        return () -> {
+          SplittableRandom r = new SplittableRandom();
+          double[] d = new double[n];
+          for (int i = 0; i < n; i++) {
+            d[i] = r.nextDouble();
+          }
+          return d;
+        };
+
+      default:
+        throw new IllegalArgumentException("no benchmark named " + name);
+    }
+  }
+
+  /**
+   * Gets n distinct boxed keys in a shuffled order, reusing the keys of the
+   * last call if it was for the same size.
+   *
+   * @param n the amount of keys
+   * @return the keys
+   */
+  private static synchronized Integer[] keys(int n) {
+    if (lastKeys.length != n) {
+      Integer[] keys = new Integer[n];
+      for (int i = 0; i < n; i++) {
+        keys[i] = i;
+      }
+      Collections.shuffle(Arrays.asList(keys), new Random(n));
+      lastKeys = keys;
+    }
+    return lastKeys;
+  }
+
+  /**
+   * Maps every key to a random score.
+   *
+   * @param keys the keys to score
+   * @return the scores of the keys
+   */
+  private static HashMap<Integer, Double> scores(Integer[] keys) {
+    HashMap<Integer, Double> scores = new HashMap<>();
+    SplittableRandom r = new SplittableRandom(keys.length);
+    for (Integer k : keys) {
+      scores.put(k, r.nextDouble());
+    }
+    return scores;
+  }
+
+  /**
+   * Writes a temporary file of n lines, deleted when the JVM exits.
+   *
+   * @param n the amount of lines
+   * @return the path of the file
+   */
+  private static String file(int n) {
+    try {
+      File file = File.createTempFile("corebench", ".txt");
+      file.deleteOnExit();
+      ArrayList<String> lines = new ArrayList<>(n);
+      for (int i = 0; i < n; i++) {
+        lines.add("line " + i + " of the benchmark file");
+      }
+      Core.writeTo(file.getPath(), lines);
+      return file.getPath();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Runs the given benchmark in the harness, then prints one line.
+   *
+   * @param name the name of the benchmark
+   * @param size the input size of one operation
+   * @param op one operation, whose result is kept alive
+   */
+  private static void run(String name, int size, Supplier<Object> op) {
+    CoreBench.Result r = BENCH.run(name + "/" + size, op);
+    Core.println(String.format("%-32s %10d %12.2f %12.2f %12.2f", name, size,
+      r.mean() / size, r.p99() / size, r.bytesPerOp() / size));
+  }
+}
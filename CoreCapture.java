@@ -0,0 +1,421 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/*******************************************************************************
+ *
+ * CoreCapture is a precompiled version of Core.capture(s, start, end) for when
+ * the same delimiters are used over a lot of input (such as pulling a field
+ * out of millions of log lines).
+ *
+ * The delimiters are compiled once into Boyer-Moore-Horspool skip tables, after
+ * which:
+ *  * find() locates the next capture and writes its offsets into a given
+ *    int[2] without allocating.
+ *  * captureAll() finds every capture in one pass and writes their offsets
+ *    into a given int[] as {begin0, end0, begin1, end1, ...}.
+ *  * forEach() hands every capture to a consumer as a CharSequence view of
+ *    the input (no characters are copied).
+ * Each of these works on a CharSequence, a char[] or a ByteBuffer. For a
+ * ByteBuffer the delimiters are matched as UTF-8 bytes and the offsets are
+ * absolute byte indices into the buffer.
+ *
+ * Example: let s = "<import>../constants/dna/[time].dna". Then
+ * new CoreCapture("<", ">").capture(s) returns "import".
+ *
+ * As with Core.capture, an empty start captures from the beginning of the
+ * input and an empty end captures until the end of the input. Unlike
+ * Core.capture, the end delimiter is only searched for after the start
+ * delimiter.
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreCapture {
+
+  /** The amount of buckets in a skip table (characters go to c & 0xFF) */
+  private static final int BUCKETS = 256;
+
+  /** The delimiters as characters */
+  private final char[] start, end;
+
+  /** The delimiters as UTF-8 bytes, for searching ByteBuffers */
+  private final byte[] startBytes, endBytes;
+
+  /** The Horspool skip tables of the delimiters */
+  private final int[] startShift, endShift, startByteShift, endByteShift;
+
+  /**
+   * Compiles the given delimiters.
+   *
+   * @param start is the prefix to start capturing from
+   * @param end is the suffix to stop capturing at
+   */
+  public CoreCapture(String start, String end) {
+    if (start.isEmpty() && end.isEmpty()) {
+      throw new IllegalArgumentException("start and end may not both be empty");
+    }
+    this.start = start.toCharArray();
+    this.end = end.toCharArray();
+    this.startBytes = start.getBytes(StandardCharsets.UTF_8);
+    this.endBytes = end.getBytes(StandardCharsets.UTF_8);
+    this.startShift = shifts(this.start);
+    this.endShift = shifts(this.end);
+    this.startByteShift = shifts(this.startBytes);
+    this.endByteShift = shifts(this.endBytes);
+  }
+
+  /**
+   * Builds the skip table of the given pattern. Characters that share a bucket
+   * share the smallest shift among them, which keeps the table safe.
+   *
+   * @param p the pattern
+   * @return how far to shift when a character of the given bucket is last
+   */
+  private static int[] shifts(char[] p) {
+    int m = p.length;
+    int[] shift = new int[BUCKETS];
+    Arrays.fill(shift, Math.max(m, 1));
+    for (int i = 0; i < m - 1; i++) {
+      shift[p[i] & 0xFF] = m - 1 - i;
+    }
+    return shift;
+  }
+
+  /**
+   * Builds the skip table of the given pattern.
+   *
+   * @param p the pattern
+   * @return how far to shift when the given byte is last
+   */
+  private static int[] shifts(byte[] p) {
+    int m = p.length;
+    int[] shift = new int[BUCKETS];
+    Arrays.fill(shift, Math.max(m, 1));
+    for (int i = 0; i < m - 1; i++) {
+      shift[p[i] & 0xFF] = m - 1 - i;
+    }
+    return shift;
+  }
+
+  /***************************************************************************
+   *                            SEARCHING
+   ***************************************************************************/
+  /**
+   * Finds the first capture in the given string.
+   *
+   * @param s is the string to capture something from
+   * @return the first capture in s or null if there is none
+   */
+  public String capture(String s) {
+    int[] range = new int[2];
+    if (find(s, 0, s.length(), range) < 0) {
+      return null;
+    }
+    return s.substring(range[0], range[1]);
+  }
+
+  /**
+   * Finds the next capture in the given range of s.
+   *
+   * @param s is the input to capture from
+   * @param from the index to start searching from (inclusive)
+   * @param to the index to stop searching at (exclusive)
+   * @param range receives {begin, end} of the capture
+   * @return the index to continue searching from or -1 if there is no capture
+   */
+  public int find(CharSequence s, int from, int to, int[] range) {
+    int b = from;
+    if (start.length > 0) {
+      int p = indexOf(s, from, to, start, startShift);
+      if (p < 0) {
+        return -1;
+      }
+      b = p + start.length;
+    }
+    int e = to;
+    int next = to;
+    if (end.length > 0) {
+      int q = indexOf(s, b, to, end, endShift);
+      if (q < 0) {
+        return -1;
+      }
+      e = q;
+      next = q + end.length;
+    }
+    range[0] = b;
+    range[1] = e;
+    return next;
+  }
+
+  /**
+   * Finds the next capture in the given range of a.
+   *
+   * @param a is the input to capture from
+   * @param from the index to start searching from (inclusive)
+   * @param to the index to stop searching at (exclusive)
+   * @param range receives {begin, end} of the capture
+   * @return the index to continue searching from or -1 if there is no capture
+   */
+  public int find(char[] a, int from, int to, int[] range) {
+    int b = from;
+    if (start.length > 0) {
+      int p = indexOf(a, from, to, start, startShift);
+      if (p < 0) {
+        return -1;
+      }
+      b = p + start.length;
+    }
+    int e = to;
+    int next = to;
+    if (end.length > 0) {
+      int q = indexOf(a, b, to, end, endShift);
+      if (q < 0) {
+        return -1;
+      }
+      e = q;
+      next = q + end.length;
+    }
+    range[0] = b;
+    range[1] = e;
+    return next;
+  }
+
+  /**
+   * Finds the next capture in the given range of buf. The position and limit
+   * of buf are not used or changed.
+   *
+   * @param buf is the UTF-8 input to capture from
+   * @param from the index to start searching from (inclusive)
+   * @param to the index to stop searching at (exclusive)
+   * @param range receives {begin, end} of the capture
+   * @return the index to continue searching from or -1 if there is no capture
+   */
+  public int find(ByteBuffer buf, int from, int to, int[] range) {
+    int b = from;
+    if (startBytes.length > 0) {
+      int p = indexOf(buf, from, to, startBytes, startByteShift);
+      if (p < 0) {
+        return -1;
+      }
+      b = p + startBytes.length;
+    }
+    int e = to;
+    int next = to;
+    if (endBytes.length > 0) {
+      int q = indexOf(buf, b, to, endBytes, endByteShift);
+      if (q < 0) {
+        return -1;
+      }
+      e = q;
+      next = q + endBytes.length;
+    }
+    range[0] = b;
+    range[1] = e;
+    return next;
+  }
+
+  /**
+   * Finds all captures in s in one pass.
+   *
+   * @param s is the input to capture from
+   * @param offsets receives {begin0, end0, begin1, end1, ...}
+   * @return the amount of captures found (at most offsets.length / 2)
+   */
+  public int captureAll(CharSequence s, int[] offsets) {
+    int[] range = new int[2];
+    int count = 0;
+    int from = 0;
+    int to = s.length();
+    while (2 * count + 1 < offsets.length) {
+      from = find(s, from, to, range);
+      if (from < 0) {
+        break;
+      }
+      offsets[2 * count] = range[0];
+      offsets[2 * count + 1] = range[1];
+      count++;
+      if (end.length == 0) {
+        break;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Finds all captures in the given range of a in one pass.
+   *
+   * @param a is the input to capture from
+   * @param from the index to start searching from (inclusive)
+   * @param to the index to stop searching at (exclusive)
+   * @param offsets receives {begin0, end0, begin1, end1, ...}
+   * @return the amount of captures found (at most offsets.length / 2)
+   */
+  public int captureAll(char[] a, int from, int to, int[] offsets) {
+    int[] range = new int[2];
+    int count = 0;
+    while (2 * count + 1 < offsets.length) {
+      from = find(a, from, to, range);
+      if (from < 0) {
+        break;
+      }
+      offsets[2 * count] = range[0];
+      offsets[2 * count + 1] = range[1];
+      count++;
+      if (end.length == 0) {
+        break;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Finds all captures in the given range of buf in one pass.
+   *
+   * @param buf is the UTF-8 input to capture from
+   * @param from the index to start searching from (inclusive)
+   * @param to the index to stop searching at (exclusive)
+   * @param offsets receives {begin0, end0, begin1, end1, ...}
+   * @return the amount of captures found (at most offsets.length / 2)
+   */
+  public int captureAll(ByteBuffer buf, int from, int to, int[] offsets) {
+    int[] range = new int[2];
+    int count = 0;
+    while (2 * count + 1 < offsets.length) {
+      from = find(buf, from, to, range);
+      if (from < 0) {
+        break;
+      }
+      offsets[2 * count] = range[0];
+      offsets[2 * count + 1] = range[1];
+      count++;
+      if (endBytes.length == 0) {
+        break;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Hands every capture in s to the given action as a view of s.
+   *
+   * @param s is the input to capture from
+   * @param action receives each capture (valid as long as s is unchanged)
+   */
+  public void forEach(CharSequence s, Consumer<CharSequence> action) {
+    int[] range = new int[2];
+    int from = 0;
+    int to = s.length();
+    while ((from = find(s, from, to, range)) >= 0) {
+      action.accept(CharBuffer.wrap(s, range[0], range[1]));
+      if (end.length == 0) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Hands every capture in the given range of a to the given action as a view
+   * of a.
+   *
+   * @param a is the input to capture from
+   * @param from the index to start searching from (inclusive)
+   * @param to the index to stop searching at (exclusive)
+   * @param action receives each capture (valid as long as a is unchanged)
+   */
+  public void forEach(char[] a, int from, int to,
+      Consumer<CharSequence> action) {
+    int[] range = new int[2];
+    while ((from = find(a, from, to, range)) >= 0) {
+      action.accept(CharBuffer.wrap(a, range[0], range[1] - range[0]));
+      if (end.length == 0) {
+        return;
+      }
+    }
+  }
+
+  /***************************************************************************
+   *                          HORSPOOL SEARCH
+   ***************************************************************************/
+  /**
+   * Finds the first index of p in s between from and to.
+   *
+   * @return the index of p or -1 if it does not occur
+   */
+  private static int indexOf(CharSequence s, int from, int to, char[] p,
+      int[] shift) {
+    int m = p.length;
+    char last = p[m - 1];
+    for (int i = from + m - 1; i < to; ) {
+      char c = s.charAt(i);
+      if (c == last) {
+        int j = m - 2;
+        int k = i - 1;
+        while (j >= 0 && s.charAt(k) == p[j]) {
+          j--;
+          k--;
+        }
+        if (j < 0) {
+          return k + 1;
+        }
+      }
+      i += shift[c & 0xFF];
+    }
+    return -1;
+  }
+
+  /**
+   * Finds the first index of p in a between from and to.
+   *
+   * @return the index of p or -1 if it does not occur
+   */
+  private static int indexOf(char[] a, int from, int to, char[] p,
+      int[] shift) {
+    int m = p.length;
+    char last = p[m - 1];
+    for (int i = from + m - 1; i < to; ) {
+      char c = a[i];
+      if (c == last) {
+        int j = m - 2;
+        int k = i - 1;
+        while (j >= 0 && a[k] == p[j]) {
+          j--;
+          k--;
+        }
+        if (j < 0) {
+          return k + 1;
+        }
+      }
+      i += shift[c & 0xFF];
+    }
+    return -1;
+  }
+
+  /**
+   * Finds the first index of p in buf between from and to.
+   *
+   * @return the index of p or -1 if it does not occur
+   */
+  private static int indexOf(ByteBuffer buf, int from, int to, byte[] p,
+      int[] shift) {
+    int m = p.length;
+    byte last = p[m - 1];
+    for (int i = from + m - 1; i < to; ) {
+      byte c = buf.get(i);
+      if (c == last) {
+        int j = m - 2;
+        int k = i - 1;
+        while (j >= 0 && buf.get(k) == p[j]) {
+          j--;
+          k--;
+        }
+        if (j < 0) {
+          return k + 1;
+        }
+      }
+      i += shift[c & 0xFF];
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,509 @@
+import java.util.AbstractCollection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*******************************************************************************
+ *
+ * CoreDeque is a circular-buffer double-ended queue, for when CoreList is used
+ * as a sliding window: CoreList.addAt(k, 0) and CoreList.removeIndex(0) move
+ * every key, where CoreDeque only moves a head index.
+ *
+ * The library offers:
+ *  * addFirst(), addLast(), pollFirst() and pollLast() in O(1).
+ *  * removeIndex(i), and the iterator's remove() that remove(Object),
+ *    removeIf(), removeAll() and retainAll() go through, which move the keys
+ *    on the shorter side of i.
+ *  * A fixed-capacity window mode (see CoreDeque(int capacity)), in which
+ *    adding to a full deque drops the key at the other end.
+ *  * max() and min() of the keys in O(1) amortized time. After the first
+ *    call, the deque keeps a monotonic deque of candidates that every add and
+ *    poll updates in O(1) amortized time. pollLast() (and addFirst() on a
+ *    full window, which drops the last key) can uncover keys that had been
+ *    dropped as candidates, so the next max()/min() then rebuilds the
+ *    candidates in O(n). Pushing at the tail and dropping from the head, the
+ *    usual sliding window, never triggers a rebuild.
+ *
+ * As with CoreList, keys are ordered by their natural ordering or by a given
+ * Comparator.
+ *
+ * @param <K> the data type of the Keys
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreDeque<K> extends AbstractCollection<K> {
+
+  /** The keys, in a circular buffer whose length is a power of two */
+  private Object[] elements;
+
+  /** The index in elements of the first key */
+  private int head;
+
+  /** The current size of the deque */
+  private int n;
+
+  /** The sequence number of the first key (each key keeps its number) */
+  private long first;
+
+  /** The fixed capacity of a window, or -1 if the deque grows */
+  private final int capacity;
+
+  /** The ordering of the keys, or null for their natural ordering */
+  private final Comparator<? super K> comparator;
+
+  /** The candidates for max() and min(), or null until first needed */
+  private Window max, min;
+
+  /** Standard constructor for a deque that grows as needed */
+  public CoreDeque() {
+    this(-1, null);
+  }
+
+  /**
+   * Constructor for a deque that grows as needed, ordered by the given
+   * comparator.
+   *
+   * @param comparator the ordering of the keys
+   */
+  public CoreDeque(Comparator<? super K> comparator) {
+    this(-1, comparator);
+  }
+
+  /**
+   * Constructor for a window of the given capacity. Adding to a full window
+   * drops the key at the other end (addLast drops the first key, addFirst the
+   * last).
+   *
+   * @param capacity the maximum size of the window
+   */
+  public CoreDeque(int capacity) {
+    this(capacity, null);
+  }
+
+  /**
+   * Constructor for a window of the given capacity, ordered by the given
+   * comparator. A capacity of -1 gives a deque that grows as needed.
+   *
+   * @param capacity the maximum size of the window, or -1
+   * @param comparator the ordering of the keys
+   */
+  public CoreDeque(int capacity, Comparator<? super K> comparator) {
+    if (capacity == 0 || capacity < -1) {
+      throw new IllegalArgumentException("illegal capacity " + capacity);
+    }
+    this.capacity = capacity;
+    this.comparator = comparator;
+    int length = 16;
+    while (length < capacity) {
+      length *= 2;
+    }
+    this.elements = new Object[length];
+  }
+
+  /**
+   * Retrieves the amount of keys in the deque.
+   *
+   * @return the size of the deque
+   */
+  public int size() {
+    return n;
+  }
+
+  /**
+   * Checks whether a window is full, in which case adding drops a key.
+   *
+   * @return true if the deque is a window holding capacity keys
+   */
+  public boolean isFull() {
+    return n == capacity;
+  }
+
+  /** Clears the deque */
+  public void clear() {
+    for (int i = 0; i < n; i++) {
+      elements[(head + i) & (elements.length - 1)] = null;
+    }
+    head = 0;
+    n = 0;
+    first = 0;
+    if (max != null) {
+      max.rebuild();
+      min.rebuild();
+    }
+  }
+
+  /***************************************************************************
+   *                          ADDING AND POLLING
+   ***************************************************************************/
+  /**
+   * Adds the given key to the end of the deque. The same as addLast(k).
+   *
+   * @param k a given key added to the deque
+   * @return true
+   */
+  public boolean add(K k) {
+    addLast(k);
+    return true;
+  }
+
+  /**
+   * Adds the given key to the end of the deque, dropping the first key if the
+   * window is full.
+   *
+   * @param k a given key added to the deque
+   */
+  public void addLast(K k) {
+    if (n == capacity) {
+      pollFirst();
+    } else if (n == elements.length) {
+      grow();
+    }
+    elements[(head + n) & (elements.length - 1)] = k;
+    n++;
+    if (max != null) {
+      long seq = first + n - 1;
+      max.addLast(seq, k);
+      min.addLast(seq, k);
+    }
+  }
+
+  /**
+   * Adds the given key to the front of the deque, dropping the last key if
+   * the window is full.
+   *
+   * @param k a given key added to the deque
+   */
+  public void addFirst(K k) {
+    if (n == capacity) {
+      pollLast();
+    } else if (n == elements.length) {
+      grow();
+    }
+    head = (head - 1) & (elements.length - 1);
+    elements[head] = k;
+    n++;
+    first--;
+    if (max != null) {
+      max.addFirst(first, k);
+      min.addFirst(first, k);
+    }
+  }
+
+  /**
+   * Removes and returns the first key of the deque.
+   *
+   * @return the first key, or null if the deque is empty
+   */
+  @SuppressWarnings("unchecked")
+  public K pollFirst() {
+    if (n == 0) {
+      return null;
+    }
+    K k = (K) elements[head];
+    elements[head] = null;
+    head = (head + 1) & (elements.length - 1);
+    n--;
+    if (max != null) {
+      max.removeFirst(first);
+      min.removeFirst(first);
+    }
+    first++;
+    return k;
+  }
+
+  /**
+   * Removes and returns the last key of the deque.
+   *
+   * @return the last key, or null if the deque is empty
+   */
+  @SuppressWarnings("unchecked")
+  public K pollLast() {
+    if (n == 0) {
+      return null;
+    }
+    int i = (head + n - 1) & (elements.length - 1);
+    K k = (K) elements[i];
+    elements[i] = null;
+    n--;
+    if (max != null) {
+      max.stale = true;
+      min.stale = true;
+    }
+    return k;
+  }
+
+  /**
+   * Gets the first key of the deque without removing it.
+   *
+   * @return the first key, or null if the deque is empty
+   */
+  @SuppressWarnings("unchecked")
+  public K peekFirst() {
+    return n == 0 ? null : (K) elements[head];
+  }
+
+  /**
+   * Gets the last key of the deque without removing it.
+   *
+   * @return the last key, or null if the deque is empty
+   */
+  @SuppressWarnings("unchecked")
+  public K peekLast() {
+    return n == 0 ? null
+      : (K) elements[(head + n - 1) & (elements.length - 1)];
+  }
+
+  /**
+   * Gets the key at the given index, counted from the front.
+   *
+   * @param i the index of the key we need to retrieve
+   * @return the key at the specified index i
+   */
+  @SuppressWarnings("unchecked")
+  public K get(int i) {
+    if (i < 0 || n <= i) {
+      throw new IndexOutOfBoundsException(i + " for size " + n);
+    }
+    return (K) elements[(head + i) & (elements.length - 1)];
+  }
+
+  /**
+   * Removes the key at the given index, counted from the front, moving the
+   * keys on its shorter side. The next max()/min() rebuilds the candidates.
+   *
+   * @param i the index of the key to remove
+   * @return the removed key
+   */
+  public K removeIndex(int i) {
+    K k = get(i);
+    int mask = elements.length - 1;
+    if (i < n / 2) {
+      // move the keys before i one step towards the end
+      for (int j = i; j > 0; j--) {
+        elements[(head + j) & mask] = elements[(head + j - 1) & mask];
+      }
+      elements[head] = null;
+      head = (head + 1) & mask;
+    } else {
+      // move the keys after i one step towards the front
+      for (int j = i; j < n - 1; j++) {
+        elements[(head + j) & mask] = elements[(head + j + 1) & mask];
+      }
+      elements[(head + n - 1) & mask] = null;
+    }
+    n--;
+    if (max != null) {
+      max.stale = true;
+      min.stale = true;
+    }
+    return k;
+  }
+
+  /** Doubles the length of the circular buffer */
+  private void grow() {
+    Object[] grown = new Object[2 * elements.length];
+    for (int i = 0; i < n; i++) {
+      grown[i] = elements[(head + i) & (elements.length - 1)];
+    }
+    elements = grown;
+    head = 0;
+  }
+
+  /**
+   * The iterator of the deque, from the first key to the last. Its remove()
+   * removes the last key returned (see removeIndex).
+   *
+   * @return the iterator of the deque
+   */
+  @Override
+  public Iterator<K> iterator() {
+    return new Iterator<K>() {
+
+      private int i = 0;
+
+      /** The index of the last key returned, or -1 */
+      private int last = -1;
+
+      @Override
+      public boolean hasNext() {
+        return i < n;
+      }
+
+      @Override
+      public K next() {
+        if (i >= n) {
+          throw new NoSuchElementException();
+        }
+        last = i;
+        return get(i++);
+      }
+
+      @Override
+      public void remove() {
+        if (last < 0) {
+          throw new IllegalStateException("next() has not been called");
+        }
+        removeIndex(last);
+        // the keys after it moved one index down
+        i = last;
+        last = -1;
+      }
+    };
+  }
+
+  /***************************************************************************
+   *                              MAX/MIN
+   ***************************************************************************/
+  /**
+   * Retrieves the largest key in the deque.
+   *
+   * @return the key with the largest value in the deque
+   */
+  public K max() {
+    track();
+    return max.get();
+  }
+
+  /**
+   * Retrieves the smallest key in the deque.
+   *
+   * @return the key with the smallest value in the deque
+   */
+  public K min() {
+    track();
+    return min.get();
+  }
+
+  /** Starts keeping the candidates for max() and min() */
+  private void track() {
+    if (n == 0) {
+      throw new NoSuchElementException("the deque is empty");
+    }
+    if (max == null) {
+      max = new Window(1);
+      min = new Window(-1);
+      max.rebuild();
+      min.rebuild();
+    }
+  }
+
+  /**
+   * Compares the two keys by the ordering of the deque.
+   *
+   * @return a negative number, zero or a positive number as a is less than,
+   *         equal to or greater than b
+   */
+  @SuppressWarnings("unchecked")
+  private int compare(K a, K b) {
+    if (comparator != null) {
+      return comparator.compare(a, b);
+    }
+    return ((Comparable<? super K>) a).compareTo(b);
+  }
+
+  /**
+   * Gets the key with the given sequence number.
+   *
+   * @param seq the sequence number of a key in the deque
+   * @return the key
+   */
+  @SuppressWarnings("unchecked")
+  private K key(long seq) {
+    return (K) elements[(head + (int) (seq - first)) & (elements.length - 1)];
+  }
+
+  /**
+   * A monotonic deque of the sequence numbers of the candidates for the max
+   * (or min) key: each candidate is at least as large (small) as every key
+   * after it, so the front candidate is the max (min).
+   */
+  private class Window {
+
+    /** 1 to track the max, -1 to track the min */
+    private final int sign;
+
+    /** The sequence numbers of the candidates, in a circular buffer */
+    private long[] seqs = new long[16];
+
+    /** The index of the front candidate and the amount of candidates */
+    private int front, size;
+
+    /** Whether candidates were lost by pollLast() (updates wait for rebuild) */
+    private boolean stale;
+
+    private Window(int sign) {
+      this.sign = sign;
+    }
+
+    private int mask() {
+      return seqs.length - 1;
+    }
+
+    private void addLast(long seq, K k) {
+      if (stale) {
+        return;
+      }
+      // drop the candidates the new key beats, they can never win again
+      while (size > 0
+          && sign * compare(key(seqs[(front + size - 1) & mask()]), k) < 0) {
+        size--;
+      }
+      if (size == seqs.length) {
+        grow();
+      }
+      seqs[(front + size) & mask()] = seq;
+      size++;
+    }
+
+    private void addFirst(long seq, K k) {
+      if (stale) {
+        return;
+      }
+      // the new key only is a candidate if it beats every key after it
+      if (size > 0 && sign * compare(k, key(seqs[front])) < 0) {
+        return;
+      }
+      if (size == seqs.length) {
+        grow();
+      }
+      front = (front - 1) & mask();
+      seqs[front] = seq;
+      size++;
+    }
+
+    private void removeFirst(long seq) {
+      if (stale) {
+        return;
+      }
+      if (size > 0 && seqs[front] == seq) {
+        front = (front + 1) & mask();
+        size--;
+      }
+    }
+
+    private K get() {
+      if (stale) {
+        rebuild();
+      }
+      return key(seqs[front]);
+    }
+
+    private void rebuild() {
+      front = 0;
+      size = 0;
+      stale = false;
+      for (int i = 0; i < n; i++) {
+        addLast(first + i, CoreDeque.this.get(i));
+      }
+    }
+
+    private void grow() {
+      long[] grown = new long[2 * seqs.length];
+      for (int i = 0; i < size; i++) {
+        grown[i] = seqs[(front + i) & mask()];
+      }
+      seqs = grown;
+      front = 0;
+    }
+  }
+}
@@ -0,0 +1,297 @@
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/*******************************************************************************
+ *
+ * CoreInterner deduplicates Strings that repeat many times, such as the
+ * values of data files read by Core.readFrom(filename, pool): every equal line
+ * becomes the same String, so the heap holds each value once.
+ *
+ * The library offers:
+ *  * intern(String), which returns the pooled String equal to the given one,
+ *    pooling it if there is none.
+ *  * intern(byte[], from, to), which looks the bytes up without decoding
+ *    them, so a hit allocates nothing. Only a miss creates a String.
+ *  * A bounded pool: a set-associative table in which every value has a set
+ *    of 8 slots (like a CPU cache). A new value goes to the front of its set
+ *    and pushes out the last one, and a hit moves a value one slot forward,
+ *    so that values used often stay while the rest fall out (roughly least
+ *    recently used). Values longer than maxLength are never pooled.
+ *  * Lock-free lookups. Threads may share a pool: entries are immutable, and
+ *    a race between two threads at most drops or duplicates an entry, which
+ *    only costs a later miss.
+ *  * hits(), misses(), hitRatio() and bytesSaved(), an estimate of the heap
+ *    that the hits did not allocate or did not keep alive.
+ *
+ * Bytes are decoded with the default charset, like CoreReader. A String and
+ * bytes of the same ASCII text find the same entry; for other text the two
+ * kinds of lookups may keep one copy each.
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreInterner {
+
+  /** The slots of every set */
+  private static final int WAYS = 8;
+
+  /** The bytes of a compact String next to its array (header and fields) */
+  private static final int STRING_BYTES = 24;
+
+  /** The charset bytes are decoded with */
+  private final Charset charset = Charset.defaultCharset();
+
+  /** Whether the charset encodes ASCII text as one byte per char */
+  private final boolean asciiCompatible;
+
+  /** The longest value, in chars or bytes, that is pooled */
+  private final int maxLength;
+
+  /** The slots, WAYS per set */
+  private final Entry[] table;
+
+  /** The mask of the set of a hash */
+  private final int mask;
+
+  /** The statistics */
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder bytesSaved = new LongAdder();
+
+  /** A pooled value */
+  private static final class Entry {
+
+    /** The hash of the value */
+    final int hash;
+
+    /** The value */
+    final String value;
+
+    /** The encoded value, or null if it is ASCII text */
+    final byte[] bytes;
+
+    /** An estimate of the heap the value takes */
+    final int size;
+
+    Entry(int hash, String value, byte[] bytes) {
+      this.hash = hash;
+      this.value = value;
+      this.bytes = bytes;
+      // a Latin-1 String holds a byte per char, any other String two
+      int array = 16 + value.length();
+      for (int i = 0; i < value.length(); i++) {
+        if (value.charAt(i) >= 256) {
+          array += value.length();
+          break;
+        }
+      }
+      this.size = STRING_BYTES + ((array + 7) & ~7);
+    }
+  }
+
+  /** Standard constructor, pooling up to 65536 values of up to 256 chars */
+  public CoreInterner() {
+    this(1 << 16, 256);
+  }
+
+  /**
+   * Constructor for a pool of the given size.
+   *
+   * @param capacity the most values pooled, rounded up to a power of two
+   * @param maxLength the longest value that is pooled
+   */
+  public CoreInterner(int capacity, int maxLength) {
+    if (capacity <= 0 || maxLength < 0) {
+      throw new IllegalArgumentException("invalid capacity " + capacity
+        + " or maxLength " + maxLength);
+    }
+    int slots = capacity <= WAYS ? WAYS
+      : Integer.highestOneBit(capacity - 1) << 1;
+    this.table = new Entry[slots];
+    this.mask = slots / WAYS - 1;
+    this.maxLength = maxLength;
+    byte[] ascii = new byte[128];
+    for (int i = 0; i < ascii.length; i++) {
+      ascii[i] = (byte) i;
+    }
+    this.asciiCompatible = Arrays.equals(ascii,
+      new String(ascii, 0, ascii.length, charset).getBytes(charset));
+  }
+
+  /***************************************************************************
+   *                              INTERNING
+   ***************************************************************************/
+  /**
+   * Gets the pooled String equal to the given one, pooling it if there is
+   * none.
+   *
+   * @param s the String to deduplicate
+   * @return the pooled String, or s itself
+   */
+  public String intern(String s) {
+    if (s.length() > maxLength) {
+      return s;
+    }
+    int hash = s.hashCode();
+    int base = base(hash);
+    for (int w = 0; w < WAYS; w++) {
+      Entry e = table[base + w];
+      if (e != null && e.hash == hash && e.value.equals(s)) {
+        hit(base, w, e);
+        return e.value;
+      }
+    }
+    misses.increment();
+    insert(base, new Entry(hash, s, null));
+    return s;
+  }
+
+  /**
+   * Gets the pooled String of the given bytes, pooling a new one if there is
+   * none. A hit does not allocate.
+   *
+   * @param b the bytes
+   * @param from the index of the first byte
+   * @param to the index after the last byte
+   * @return the String of the bytes
+   */
+  public String intern(byte[] b, int from, int to) {
+    int length = to - from;
+    if (length > maxLength) {
+      return new String(b, from, length, charset);
+    }
+    // the hash of String.hashCode(), which ASCII text shares with its bytes
+    int hash = 0;
+    int any = 0;
+    for (int i = from; i < to; i++) {
+      hash = 31 * hash + (b[i] & 0xff);
+      any |= b[i];
+    }
+    boolean ascii = any >= 0 && asciiCompatible;
+    int base = base(hash);
+    for (int w = 0; w < WAYS; w++) {
+      Entry e = table[base + w];
+      if (e != null && e.hash == hash && matches(e, ascii, b, from, to)) {
+        hit(base, w, e);
+        return e.value;
+      }
+    }
+    misses.increment();
+    String value = new String(b, from, length, charset);
+    insert(base, new Entry(hash, value,
+      ascii ? null : Arrays.copyOfRange(b, from, to)));
+    return value;
+  }
+
+  /**
+   * Checks whether the given entry holds the given bytes.
+   *
+   * @param ascii whether the bytes are ASCII text
+   * @return true if the entry holds the bytes
+   */
+  private static boolean matches(Entry e, boolean ascii, byte[] b, int from,
+      int to) {
+    if (e.bytes != null) {
+      return Arrays.equals(e.bytes, 0, e.bytes.length, b, from, to);
+    }
+    String v = e.value;
+    if (!ascii || v.length() != to - from) {
+      return false;
+    }
+    for (int i = 0; i < v.length(); i++) {
+      if (v.charAt(i) != b[from + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the first slot of the set of the given hash.
+   *
+   * @return the index of the first slot of the set
+   */
+  private int base(int hash) {
+    int h = hash * 0x9E3779B9;
+    return ((h ^ (h >>> 16)) & mask) * WAYS;
+  }
+
+  /**
+   * Counts a hit on the entry in the given slot and moves it one slot
+   * forward.
+   *
+   * @param base the first slot of the set
+   * @param w the slot of the entry in the set
+   * @param e the entry found
+   */
+  private void hit(int base, int w, Entry e) {
+    if (w > 0) {
+      table[base + w] = table[base + w - 1];
+      table[base + w - 1] = e;
+    }
+    hits.increment();
+    bytesSaved.add(e.size);
+  }
+
+  /**
+   * Puts the given entry at the front of its set, pushing out the last one.
+   *
+   * @param base the first slot of the set
+   * @param e the entry
+   */
+  private void insert(int base, Entry e) {
+    for (int w = WAYS - 1; w > 0; w--) {
+      table[base + w] = table[base + w - 1];
+    }
+    table[base] = e;
+  }
+
+  /** Empties the pool and resets its statistics */
+  public void clear() {
+    Arrays.fill(table, null);
+    hits.reset();
+    misses.reset();
+    bytesSaved.reset();
+  }
+
+  /***************************************************************************
+   *                             STATISTICS
+   ***************************************************************************/
+  /** @return the lookups that found a pooled value */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /** @return the lookups that pooled a new value */
+  public long misses() {
+    return misses.sum();
+  }
+
+  /** @return the fraction of lookups that found a pooled value */
+  public double hitRatio() {
+    long h = hits.sum();
+    long total = h + misses.sum();
+    return total == 0 ? 0 : h / (double) total;
+  }
+
+  /** @return an estimate of the bytes of the Strings the hits replaced */
+  public long bytesSaved() {
+    return bytesSaved.sum();
+  }
+
+  /** @return the most values pooled */
+  public int capacity() {
+    return table.length;
+  }
+
+  /**
+   * Summarizes the statistics.
+   *
+   * @return the hits, misses, hit ratio and bytes saved
+   */
+  @Override
+  public String toString() {
+    return String.format("CoreInterner[%d hits, %d misses, %.1f%% hit ratio, "
+      + "%d bytes saved]", hits(), misses(), 100 * hitRatio(), bytesSaved());
+  }
+}
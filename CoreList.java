@@ -1,23 +1,50 @@
+import java.util.AbstractList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.UnaryOperator;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /*******************************************************************************
  *
  * CoreList is a custom implementation of an ArrayList-like iterable
- * Collection/List.
+ * Collection/List. It is a java.util.List (with RandomAccess), so it can be
+ * handed to Collections, List.sort, streams and collectors without copying
+ * (directStream() streams the list without copying it, stream() streams a
+ * copy that the list may change under).
  *
  * The library offers some methods that ArrayList doesn't:
  *  * max() returns the maximum in the list.
  *  * min() returns the minimum in the list.
- *  * getRandom() returns a random Key in the list.
+ *  * getRandom() returns a random Key in the list, sample() returns distinct
+ *    random keys and weighted() samples keys by weight (see CoreSampler).
  *  * removeKey and removeIndex are separate to avoid the case of an list.
  *  * ConcurrentModificationException fix: You are able to remove elements
  *    during for-each enhanced forloop iterations without experiencing errors.
+ *    Alternatively, setFailFast(true) switches to a fail-fast iterator with
+ *    an O(1) remove().
  *  * otherThanKey() returns an iterable list of all keys except the specified.
  *  * sorted() returns a sorted version of the list in the order specified
  *    ("min" or "max").
+ *  * addAll(), addAllAt(), removeIf(), removeAll() and retainAll() work in a
+ *    single pass, growing or compacting the array at most once.
+ *  * Keys are ordered by their natural ordering, or by a Comparator given to
+ *    the constructor, which lets the list hold keys that are not Comparable.
+ *  * kth(), median() and percentile() select a key in O(n) expected time
+ *    without sorting, and sketch() keeps an approximate CoreQuantileSketch
+ *    of the keys as they are added.
  *
  * @param <K> the data type of the Keys
  *
@@ -49,23 +76,48 @@ import java.util.stream.Stream;
  *         CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
  *         SOFTWARE.
  *****************************************************************************/
-public class CoreList<K extends Comparable<K>> implements Iterable<K> {
+public class CoreList<K> extends AbstractList<K> implements RandomAccess {
 
-  /** The array of the Keys (will always be a multiple of 10) */
+  /** The array of the Keys (at least 10 long) */
   private K[] list;
 
   /** The current size of the defined elements in the array */
   private int n;
 
+  /** The ordering of the keys, or null for their natural ordering */
+  private Comparator<? super K> comparator;
+
+  /** Defines whether iterator() fails fast (see iterator()) */
+  private boolean failFast = false;
+
+  /** The fail-fast iterator whose removals have not been compacted yet */
+  private FailFastIterator pending;
+
+  /** The scratch buffer that kth() selects in, reused between calls */
+  private Object[] scratch;
+
+  /** The indices picked by sample(into), reused between calls */
+  private int[] picks;
+
+  /** The scratch table of CoreSampler.distinct(), reused between calls */
+  private int[] pickTable;
+
+  /** The quantile sketch fed by every add, or null until sketch() is called */
+  private CoreQuantileSketch<K> sketch;
+
+  /** Times the array had to grow to make space for added keys */
+  private static final CoreMetrics.Counter GROWS =
+    CoreMetrics.counter("corelist_grows_total");
+
   /**
    * Constructor using a pre-existing array.
    *
    * @param arr the array to construct the list from
    */
-  @SuppressWarnings({"unchecked", "rawtypes"})
+  @SuppressWarnings("unchecked")
   public CoreList(K[] arr) {
     this.n = arr.length;
-    this.list = (K[]) new Comparable[10 * (n / 10) + 10];
+    this.list = (K[]) new Object[10 * (n / 10) + 10];
     for (int i = 0; i < n; i++) {
       list[i] = arr[i];
     }
@@ -76,6 +128,17 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
     clear();
   }
 
+  /**
+   * Constructor for a list ordered by the given comparator (used by max(),
+   * min() and sorted()) instead of the natural ordering of the keys.
+   *
+   * @param comparator the ordering of the keys
+   */
+  public CoreList(Comparator<? super K> comparator) {
+    this.comparator = comparator;
+    clear();
+  }
+
   /**
    * Constructor for when accidently including an integer is added a parameter.
    * @param i does nothing
@@ -90,6 +153,7 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return the size of the list
    */
   public int size() {
+    settle();
     return n;
   }
 
@@ -99,34 +163,38 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return true if the list is empty
    */
   public boolean isEmpty() {
+    settle();
     return n == 0;
   }
 
   /**
    * Clears the list, might as well construct a new list.
    */
-  @SuppressWarnings({"unchecked", "rawtypes"})
+  @SuppressWarnings("unchecked")
   public void clear() {
-    this.list = (K[]) new Comparable[10];
+    settle();
+    this.list = (K[]) new Object[10];
     this.n = 0;
+    this.scratch = null;
+    modCount++;
   }
 
   /**
    * Adds the given key to the list.
    *
    * @param k a given key added to the list
+   * @return true
    */
-  @SuppressWarnings({"unchecked", "rawtypes"})
-   public void add(K k) {
-    if (this.n == list.length) {
-      K[] newList = (K[]) new Comparable[n + 10];
-      for (int i = 0; i < n; i++) {
-        newList[i] = list[i];
-      }
-      list = newList;
-    }
+  public boolean add(K k) {
+    settle();
+    grow(n + 1);
     list[n] = k;
     n++;
+    modCount++;
+    if (sketch != null) {
+      sketch.add(k);
+    }
+    return true;
   }
 
   /**
@@ -135,21 +203,247 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @param k a given key added to the list
    * @param index a given index to add the key at
    */
-  @SuppressWarnings({"unchecked", "rawtypes"})
   public void addAt(K k, int index) {
-    if (this.n == list.length) {
-      K[] newList = (K[]) new Comparable[n + 10];
-      for (int i = 0; i < n; i++) {
-        newList[i] = list[i];
-      }
-      list = newList;
+    settle();
+    if (index < 0 || n < index) {
+      throw new IndexOutOfBoundsException(index + " for size " + n);
     }
+    grow(n + 1);
     // now move it downwards
     for (int i = n; i > index; i--) {
       list[i] = list[i - 1];
     }
     list[index] = k;
     n++;
+    modCount++;
+    if (sketch != null) {
+      sketch.add(k);
+    }
+  }
+
+  /**
+   * Makes sure the array can hold the given amount of keys, growing it by
+   * half (or to capacity, if that is more) if it can't. Growing by a factor
+   * keeps adding n keys one at a time linear instead of quadratic.
+   *
+   * @param capacity the amount of keys the array must be able to hold
+   */
+  @SuppressWarnings("unchecked")
+  private void grow(int capacity) {
+    if (capacity > list.length) {
+      GROWS.increment();
+      int length = list.length + Math.max(10, list.length >> 1);
+      if (length < capacity || length < 0) {
+        length = capacity;
+      }
+      K[] newList = (K[]) new Object[length];
+      System.arraycopy(list, 0, newList, 0, n);
+      list = newList;
+    }
+  }
+
+  /***************************************************************************
+   *                          BULK OPERATIONS
+   ***************************************************************************/
+  /**
+   * Adds all the given keys to the end of the list, growing it at most once.
+   *
+   * @param ks the keys to add
+   * @return true if the list changed
+   */
+  public boolean addAll(K[] ks) {
+    settle();
+    grow(n + ks.length);
+    System.arraycopy(ks, 0, list, n, ks.length);
+    feed(n, n + ks.length);
+    n += ks.length;
+    modCount++;
+    return ks.length > 0;
+  }
+
+  /**
+   * Adds all the keys of the given list to the end of this list, growing it at
+   * most once.
+   *
+   * @param l the list of keys to add
+   * @return true if the list changed
+   */
+  public boolean addAll(CoreList<? extends K> l) {
+    settle();
+    l.settle();
+    int m = l.n;
+    grow(n + m);
+    System.arraycopy(l.list, 0, list, n, m);
+    feed(n, n + m);
+    n += m;
+    modCount++;
+    return m > 0;
+  }
+
+  /**
+   * Adds all the keys of the given collection to the end of the list, growing
+   * it at most once. The collection is copied first, so it may be this list.
+   *
+   * @param c the collection of keys to add
+   * @return true if the list changed
+   */
+  @SuppressWarnings("unchecked")
+  public boolean addAll(Collection<? extends K> c) {
+    return addAll((K[]) c.toArray());
+  }
+
+  /**
+   * Adds all the keys of the given iterable to the end of the list.
+   *
+   * @param it the keys to add
+   * @return true if the list changed
+   */
+  public boolean addAll(Iterable<? extends K> it) {
+    settle();
+    if (it instanceof Collection) {
+      return addAll((Collection<? extends K>) it);
+    }
+    int before = n;
+    for (K k : it) {
+      add(k);
+    }
+    return n != before;
+  }
+
+  /**
+   * Adds all the given keys at the given index and moves everything after it
+   * up once (instead of once per key).
+   *
+   * @param ks the keys to add
+   * @param index a given index to add the first key at
+   * @return true if the list changed
+   */
+  public boolean addAllAt(K[] ks, int index) {
+    settle();
+    if (index < 0 || n < index) {
+      throw new IndexOutOfBoundsException(index + " for size " + n);
+    }
+    int m = ks.length;
+    grow(n + m);
+    System.arraycopy(list, index, list, index + m, n - index);
+    System.arraycopy(ks, 0, list, index, m);
+    feed(index, index + m);
+    n += m;
+    modCount++;
+    return m > 0;
+  }
+
+  /**
+   * Adds all the keys of the given list at the given index and moves
+   * everything after it up once (instead of once per key).
+   *
+   * @param l the list of keys to add
+   * @param index a given index to add the first key at
+   * @return true if the list changed
+   */
+  public boolean addAllAt(CoreList<? extends K> l, int index) {
+    settle();
+    if (index < 0 || n < index) {
+      throw new IndexOutOfBoundsException(index + " for size " + n);
+    }
+    l.settle();
+    int m = l.n;
+    // copy first in case l is this list
+    Object[] ks = Arrays.copyOf(l.list, m, Object[].class);
+    grow(n + m);
+    System.arraycopy(list, index, list, index + m, n - index);
+    System.arraycopy(ks, 0, list, index, m);
+    feed(index, index + m);
+    n += m;
+    modCount++;
+    return m > 0;
+  }
+
+  /**
+   * Adds all the keys of the given collection at the given index and moves
+   * everything after it up once (instead of once per key).
+   *
+   * @param index a given index to add the first key at
+   * @param c the collection of keys to add
+   * @return true if the list changed
+   */
+  @SuppressWarnings("unchecked")
+  public boolean addAll(int index, Collection<? extends K> c) {
+    return addAllAt((K[]) c.toArray(), index);
+  }
+
+  /**
+   * Feeds the keys between the given indices to the sketch, if there is one.
+   *
+   * @param from the index of the first added key
+   * @param to the index after the last added key
+   */
+  private void feed(int from, int to) {
+    if (sketch != null) {
+      for (int i = from; i < to; i++) {
+        sketch.add(list[i]);
+      }
+    }
+  }
+
+  /**
+   * Removes every key that fulfills the given predicate in a single pass,
+   * keeping the order of the remaining keys. This is the O(n) way of pruning
+   * a list, where calling removeKey during iteration costs O(n) per removal.
+   *
+   * @param predicate states whether a key should be removed
+   * @return true if any keys were removed
+   */
+  public boolean removeIf(Predicate<? super K> predicate) {
+    settle();
+    int w = 0;
+    for (int r = 0; r < n; r++) {
+      K k = list[r];
+      if (!predicate.test(k)) {
+        list[w++] = k;
+      }
+    }
+    if (w == n) {
+      return false;
+    }
+    Arrays.fill(list, w, n, null);
+    n = w;
+    modCount++;
+    return true;
+  }
+
+  /**
+   * Removes every key that is contained in the given collection (as decided
+   * by equals) in a single pass.
+   *
+   * @param c the keys to remove
+   * @return true if any keys were removed
+   */
+  public boolean removeAll(Collection<?> c) {
+    Set<?> set = asSet(c);
+    return removeIf(set::contains);
+  }
+
+  /**
+   * Removes every key that is not contained in the given collection (as
+   * decided by equals) in a single pass.
+   *
+   * @param c the keys to keep
+   * @return true if any keys were removed
+   */
+  public boolean retainAll(Collection<?> c) {
+    Set<?> set = asSet(c);
+    return removeIf(k -> !set.contains(k));
+  }
+
+  /**
+   * Gets a set with constant time lookups holding the given keys.
+   *
+   * @param c the keys
+   * @return c itself if it is a set, else a HashSet of c
+   */
+  private static Set<?> asSet(Collection<?> c) {
+    return c instanceof Set ? (Set<?>) c : new HashSet<>(c);
   }
 
   /**
@@ -158,6 +452,7 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @param k the key to be removed from the list if the list contains it
    */
   public void removeKey(K k) {
+    settle();
     if (k == null) {
       return;
     }
@@ -168,6 +463,7 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
         }
         list[n - 1] = null;
         n--;
+        modCount++;
         return;
       }
     }
@@ -180,27 +476,73 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return the key at the specified index after removing it
    */
   public K removeIndex(int i) {
+    return remove(i);
+  }
+
+  /**
+   * Removes the element at the given index and returns the key at that index.
+   *
+   * @param i the index removed from the list if it is within bounds
+   * @return the key at the specified index after removing it
+   */
+  public K remove(int i) {
+    settle();
     if (i < 0 || n <= i) {
       throw new IndexOutOfBoundsException(i + " for size " + n);
     }
     K k = list[i];
-    removeKey(k);
+    System.arraycopy(list, i + 1, list, i, n - i - 1);
+    list[--n] = null;
+    modCount++;
     return k;
   }
 
   /**
-   * retrieves the index of the specified key.
+   * Removes the first key that equals the given object from the list.
    *
-   * @param k the given key for which we will be searching the index for
-   * @return the index of the given key if it is contained in the list
+   * @param o the object to be removed from the list if the list contains it
+   * @return true if the list contained o
    */
-  public int indexOf(K k) {
+  public boolean remove(Object o) {
+    int i = indexOf(o);
+    if (i < 0) {
+      return false;
+    }
+    remove(i);
+    return true;
+  }
+
+  /**
+   * Removes the keys from the index from (inclusive) to the index to
+   * (exclusive), moving the keys after them down once. Used by
+   * subList(from, to).clear().
+   *
+   * @param from the first index to remove
+   * @param to the index after the last one to remove
+   */
+  @Override
+  protected void removeRange(int from, int to) {
+    settle();
+    System.arraycopy(list, to, list, from, n - to);
+    Arrays.fill(list, n - (to - from), n, null);
+    n -= to - from;
+    modCount++;
+  }
+
+  /**
+   * retrieves the index of the first key that equals the given object.
+   *
+   * @param o the given object for which we will be searching the index for
+   * @return the index of o if it is contained in the list, else -1
+   */
+  public int indexOf(Object o) {
+    settle();
     for (int i = 0; i < n; i++) {
-      if (list[i] == k) {
+      if (Objects.equals(list[i], o)) {
         return i;
       }
     }
-    throw new IllegalArgumentException("List doesn't contain element");
+    return -1;
   }
 
   /**
@@ -210,6 +552,7 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return the key at the specified index i
    */
   public K get(int i) {
+    settle();
     if (i < 0 || n <= i) {
       throw new IndexOutOfBoundsException(i + " for size " + n);
     }
@@ -217,18 +560,41 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
   }
 
   /**
-   * Checks whether the list contains the given key.
+   * Replaces the element at the specified index.
    *
-   * @param k the key we are searching the list for
-   * @return true if k is contained within the list
+   * @param i the index of the key to replace
+   * @param k the new key
+   * @return the key that was at index i
    */
-  public boolean contains(K k) {
-    for (int i = 0; i < n; i++) {
-      if (list[i] == k) {
-        return true;
-      }
+  public K set(int i, K k) {
+    settle();
+    if (i < 0 || n <= i) {
+      throw new IndexOutOfBoundsException(i + " for size " + n);
     }
-    return false;
+    K old = list[i];
+    list[i] = k;
+    return old;
+  }
+
+  /**
+   * Adds the given key at the given index and moves everything else up. The
+   * same as addAt(k, index).
+   *
+   * @param index a given index to add the key at
+   * @param k a given key added to the list
+   */
+  public void add(int index, K k) {
+    addAt(k, index);
+  }
+
+  /**
+   * Checks whether the list contains a key that equals the given object.
+   *
+   * @param o the object we are searching the list for
+   * @return true if o is contained within the list
+   */
+  public boolean contains(Object o) {
+    return indexOf(o) >= 0;
   }
 
   /**
@@ -236,13 +602,30 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    *
    * @return an array version of the list
    */
-   @SuppressWarnings({"unchecked", "rawtypes"})
+  @SuppressWarnings("unchecked")
   public K[] toArray() {
-    K[] arr = (K[]) new Comparable[n];
-    for (int i = 0; i < n; i++) {
-      arr[i] = list[i];
+    settle();
+    return Arrays.copyOf(list, n);
+  }
+
+  /**
+   * Retrieves an array version of the list in the given array if it is large
+   * enough, else in a new array of the same type.
+   *
+   * @param a the array to store the keys in
+   * @return an array version of the list
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T[] toArray(T[] a) {
+    settle();
+    if (a.length < n) {
+      return (T[]) Arrays.copyOf(list, n, a.getClass());
+    }
+    System.arraycopy(list, 0, a, 0, n);
+    if (a.length > n) {
+      a[n] = null;
     }
-    return arr;
+    return a;
   }
 
   /**
@@ -251,6 +634,7 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return a random element from the list
    */
   public K getRandom() {
+    settle();
     int i = randomIndex();
     return list[i];
   }
@@ -261,7 +645,8 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return a random index from the list
    */
   public int randomIndex() {
-    return (int) (Math.random() * n);
+    settle();
+    return n == 0 ? 0 : CoreRandom.current().nextInt(n);
   }
 
   /**
@@ -270,6 +655,7 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return a random element from the list
    */
   public K removeRandom() {
+    settle();
     int i = randomIndex();
     K k = list[i];
     removeIndex(i);
@@ -283,17 +669,92 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return a random element that is not the given key
    */
   public K getRandomOtherThan(K k) {
-    int indexOfK = 0;
-    try {
-      indexOfK = indexOf(k);
-    } catch (IllegalArgumentException e) {
+    settle();
+    int indexOfK = indexOf(k);
+    if (indexOfK < 0) {
       return list[randomIndex()];
     }
-    int i = randomIndex();
-    while (i == indexOfK) {
-      i = randomIndex();
+    return getRandomOtherThanIndex(indexOfK);
+  }
+
+  /**
+   * Gets a random element that is not at the given index, in O(1) and with a
+   * single random draw.
+   *
+   * @param index the index that may not be chosen
+   * @return a random element that is not at the given index
+   */
+  public K getRandomOtherThanIndex(int index) {
+    settle();
+    if (index < 0 || n <= index) {
+      throw new IndexOutOfBoundsException(index + " for size " + n);
     }
-    return list[i];
+    if (n == 1) {
+      throw new NoSuchElementException("the list holds no other element");
+    }
+    // draw from the n - 1 other indices and step over the excluded one
+    int i = CoreRandom.current().nextInt(n - 1);
+    return list[i < index ? i : i + 1];
+  }
+
+  /**
+   * Gets k distinct random elements from the list (distinct by index, so
+   * equal keys may both be chosen), in a random order.
+   *
+   * @param k the amount of elements to sample
+   * @return a list of k random elements
+   */
+  @SuppressWarnings("unchecked")
+  public CoreList<K> sample(int k) {
+    K[] sample = sample((K[]) new Object[k]);
+    CoreList<K> sampleList = new CoreList<>(sample);
+    sampleList.comparator = comparator;
+    return sampleList;
+  }
+
+  /**
+   * Fills the given array with distinct random elements from the list
+   * (distinct by index), in a random order. Unlike sample(int), this does not
+   * allocate once the list has sampled that many elements before.
+   *
+   * @param into the array to store the sample in
+   * @return into
+   */
+  public K[] sample(K[] into) {
+    settle();
+    int k = into.length;
+    if (picks == null || picks.length != k) {
+      picks = new int[k];
+      pickTable = CoreSampler.distinctTable(k);
+    }
+    CoreSampler.distinct(n, picks, pickTable, CoreRandom.current());
+    for (int i = 0; i < k; i++) {
+      into[i] = list[picks[i]];
+    }
+    return into;
+  }
+
+  /**
+   * Builds a weighted sampler of the current elements of the list, which
+   * draws index i with probability weight(get(i)) / (sum of the weights) in
+   * O(1) and without allocating:
+   *
+   *   CoreSampler.Alias sampler = list.weighted(k -> k.score);
+   *   K k = list.get(sampler.next());
+   *
+   * The sampler does not follow later changes to the list. For weights that
+   * change between draws, use a CoreSampler.Fenwick instead.
+   *
+   * @param weight computes the non-negative weight of a key
+   * @return the weighted sampler of the indices of the list
+   */
+  public CoreSampler.Alias weighted(ToDoubleFunction<? super K> weight) {
+    settle();
+    double[] weights = new double[n];
+    for (int i = 0; i < n; i++) {
+      weights[i] = weight.applyAsDouble(list[i]);
+    }
+    return new CoreSampler.Alias(weights);
   }
 
   /**
@@ -314,8 +775,9 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return a sorted version of the list in the specified order
    */
   public CoreList<K> sorted(String order) {
+    settle();
     K[] sorted = this.toArray();
-    Arrays.sort(sorted);
+    Arrays.sort(sorted, comparator);
     if (order.equals("max")) {
       for (int i = 0; i < n / 2; i++) {
         K temp = sorted[i];
@@ -323,7 +785,56 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
         sorted[n - 1 - i] = temp;
       }
     }
-    return new CoreList<>(sorted);
+    CoreList<K> sortedList = new CoreList<>(sorted);
+    sortedList.comparator = comparator;
+    return sortedList;
+  }
+
+  /**
+   * Sorts the list in place by the given comparator.
+   *
+   * @param c the ordering to sort by, or null for the ordering of the list
+   */
+  public void sort(Comparator<? super K> c) {
+    settle();
+    Arrays.sort(list, 0, n, c != null ? c : comparator);
+    modCount++;
+  }
+
+  /**
+   * Replaces every key with the result of the given operator.
+   *
+   * @param operator computes the new key from the old one
+   */
+  public void replaceAll(UnaryOperator<K> operator) {
+    settle();
+    for (int i = 0; i < n; i++) {
+      list[i] = operator.apply(list[i]);
+    }
+    modCount++;
+  }
+
+  /**
+   * Gets the ordering of the list.
+   *
+   * @return the comparator of the list, or null for the natural ordering
+   */
+  public Comparator<? super K> comparator() {
+    return comparator;
+  }
+
+  /**
+   * Compares the two keys by the ordering of the list.
+   *
+   * @return a negative number, zero or a positive number as a is less than,
+   *         equal to or greater than b
+   */
+  @SuppressWarnings("unchecked")
+  private int compare(K a, K b) {
+    if (comparator != null) {
+      return comparator.compare(a, b);
+    }
+    return ((Comparable<? super K>) a).compareTo(b);
   }
 
   /**
@@ -332,6 +843,7 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return the first element in the list
    */
   public K first() {
+    settle();
     return list[0];
   }
 
@@ -341,6 +853,7 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return the last element in the list
    */
   public K last() {
+    settle();
     return list[n - 1];
   }
 
@@ -350,6 +863,7 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return the index of the last element in the array
    */
   public int lastIndex() {
+    settle();
     return n - 1;
   }
 
@@ -359,9 +873,10 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return the key with the largest value in the list
    */
   public K max() {
+    settle();
     K max = list[0];
     for (int i = 1; i < n; i++) {
-      if (list[i].compareTo(max) > 0) {
+      if (compare(list[i], max) > 0) {
         max = list[i];
       }
     }
@@ -374,37 +889,223 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return the key with the smallest value in the list
    */
   public K min() {
+    settle();
     K min = list[0];
     for (int i = 1; i < n; i++) {
-      if (list[i].compareTo(min) < 0) {
+      if (compare(list[i], min) < 0) {
         min = list[i];
       }
     }
     return min;
   }
 
+  /***************************************************************************
+   *                          ORDER STATISTICS
+   ***************************************************************************/
+  /**
+   * Retrieves the key that would be at index k if the list were sorted in
+   * ascending order, in O(n) expected time. The keys are copied to a scratch
+   * buffer that is kept for the next call, so the list itself is not
+   * reordered and repeated calls do not allocate.
+   *
+   * @param k the index in the sorted order, from 0 (the min) to size() - 1
+   *        (the max)
+   * @return the k-th smallest key
+   */
+  @SuppressWarnings("unchecked")
+  public K kth(int k) {
+    settle();
+    if (k < 0 || n <= k) {
+      throw new IndexOutOfBoundsException(k + " for size " + n);
+    }
+    if (scratch == null || scratch.length < n) {
+      scratch = new Object[list.length];
+    }
+    System.arraycopy(list, 0, scratch, 0, n);
+    K kth = select((K[]) scratch, k);
+    // let go of the keys, the list may drop them later
+    Arrays.fill(scratch, 0, n, null);
+    return kth;
+  }
+
+  /**
+   * Retrieves the median of the list. For an even size it is the lower of
+   * the two middle keys, so that it always is a key of the list.
+   *
+   * @return the median key
+   */
+  public K median() {
+    return kth((size() - 1) / 2);
+  }
+
+  /**
+   * Retrieves the given percentile of the list by the nearest rank method:
+   * the smallest key such that at least p% of the keys are less than or equal
+   * to it. percentile(0) is the min and percentile(100) the max.
+   *
+   * @param p the percentile, from 0 to 100
+   * @return the key at the given percentile
+   */
+  public K percentile(double p) {
+    if (!(0 <= p && p <= 100)) {
+      throw new IllegalArgumentException("percentile " + p
+        + " is not within 0 and 100");
+    }
+    int rank = (int) Math.ceil(p / 100 * size());
+    return kth(Math.max(rank, 1) - 1);
+  }
+
+  /**
+   * Gets the quantile sketch of the list, attaching one (fed with the current
+   * keys) on the first call. From then on every key added to the list is also
+   * added to the sketch, so that percentiles of a growing list cost a binary
+   * search instead of a selection. Keys removed from the list stay in the
+   * sketch.
+   *
+   * @return the quantile sketch of the list
+   */
+  public CoreQuantileSketch<K> sketch() {
+    settle();
+    if (sketch == null) {
+      sketch = new CoreQuantileSketch<>(comparator);
+      for (int i = 0; i < n; i++) {
+        sketch.add(list[i]);
+      }
+    }
+    return sketch;
+  }
+
+  /**
+   * Introselect: quickselect with a median-of-three pivot and a three-way
+   * partition (so that runs of equal keys cost nothing), which falls back to
+   * sorting the remaining range when the pivots keep being poor.
+   *
+   * @param a the keys, which are reordered
+   * @param k the index in the sorted order of the key to select
+   * @return the k-th smallest key of a[0..n)
+   */
+  private K select(K[] a, int k) {
+    int lo = 0;
+    int hi = n - 1;
+    int depth = 2 * (32 - Integer.numberOfLeadingZeros(n));
+    while (hi - lo > 16) {
+      if (depth-- == 0) {
+        Arrays.sort(a, lo, hi + 1, comparator);
+        return a[k];
+      }
+      K pivot = medianOf(a[lo], a[(lo + hi) >>> 1], a[hi]);
+      // a[lo..lt) < pivot, a[lt..i) == pivot and a(gt..hi] > pivot
+      int lt = lo;
+      int gt = hi;
+      int i = lo;
+      while (i <= gt) {
+        int c = compare(a[i], pivot);
+        if (c < 0) {
+          swap(a, lt++, i++);
+        } else if (c > 0) {
+          swap(a, i, gt--);
+        } else {
+          i++;
+        }
+      }
+      if (k < lt) {
+        hi = lt - 1;
+      } else if (k > gt) {
+        lo = gt + 1;
+      } else {
+        return pivot;
+      }
+    }
+    // insertion sort for the last few keys
+    for (int i = lo + 1; i <= hi; i++) {
+      K key = a[i];
+      int j = i - 1;
+      for (; j >= lo && compare(a[j], key) > 0; j--) {
+        a[j + 1] = a[j];
+      }
+      a[j + 1] = key;
+    }
+    return a[k];
+  }
+
+  /**
+   * Retrieves the middle one of the three keys.
+   *
+   * @return the median of a, b and c
+   */
+  private K medianOf(K a, K b, K c) {
+    if (compare(a, b) > 0) {
+      K t = a;
+      a = b;
+      b = t;
+    }
+    if (compare(b, c) <= 0) {
+      return b;
+    }
+    return compare(a, c) >= 0 ? a : c;
+  }
+
+  /**
+   * Swaps the keys at the given indices.
+   *
+   * @param a the keys
+   * @param i an index
+   * @param j another index
+   */
+  private static <K> void swap(K[] a, int i, int j) {
+    K t = a[i];
+    a[i] = a[j];
+    a[j] = t;
+  }
+
   /**
    * Gets a clone of the list that avoids pointer errors with it's predecessor.
    *
    * @return a copy of the list
    */
   public CoreList<K> copy() {
-    CoreList<K> copy = new CoreList<>();
-    for (int i = 0; i < n; i++) {
-      copy.add(list[i]);
-    }
+    settle();
+    CoreList<K> copy = new CoreList<>(comparator);
+    copy.addAll(this);
     return copy;
   }
 
   /**
-   * stream() method for use with lambda expressions such as forEach
+   * stream() method for use with lambda expressions such as forEach. The
+   * stream reads a copy of the list, so the list may be changed while the
+   * stream is in use (list.stream().forEach(list::removeKey) works).
    *
    * @return the contents of the list as a stream
    */
   public Stream<K> stream() {
+    settle();
     return Arrays.stream(Arrays.copyOf(list, n));
   }
 
+  /**
+   * Gets a stream that reads the list directly, without copying it. Changing
+   * the list while the stream is in use throws a
+   * ConcurrentModificationException.
+   *
+   * @return the contents of the list as a stream
+   */
+  public Stream<K> directStream() {
+    return StreamSupport.stream(spliterator(), false);
+  }
+
+  /**
+   * Gets a spliterator over the keys of the list, for directStream() and
+   * parallel streams. It reads the list directly, without copying. It binds
+   * to the size of the list at its first use and fails fast: changing the
+   * list after that throws a ConcurrentModificationException.
+   *
+   * @return a spliterator over the list
+   */
+  @Override
+  public Spliterator<K> spliterator() {
+    return new ListSpliterator(0, -1, 0);
+  }
+
   /**
    * Returns a filtered list where all elements fulfill the conditions of the
    * given predicate
@@ -414,7 +1115,8 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    * @return a corelist of which the elements all meet the predicate requirement
    */
   public CoreList<K> filter(Predicate<K> predicate) {
-    CoreList<K> filter = new CoreList<>();
+    settle();
+    CoreList<K> filter = new CoreList<>(comparator);
     for (K k : this) {
       if (predicate.test(k)) {
         filter.add(k);
@@ -424,15 +1126,53 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
   }
 
   /**
-   * The iterator for the use of for-each enhanced forloop iteration. It avoids
-   * ConcurrentModificationException that is thrown when elements are removed
-   * from the list during iteration without any extra work required from the
-   * user (like directly) using the class' Iterator.
+   * Chooses how iterator() (and so for-each loops) iterates the list. By
+   * default the list is iterated tolerantly (see iterator(false)).
+   *
+   * @param failFast true to iterate with iterator(true) from now on
+   */
+  public void setFailFast(boolean failFast) {
+    this.failFast = failFast;
+  }
+
+  /**
+   * The iterator for the use of for-each enhanced forloop iteration, in the
+   * mode chosen with setFailFast (tolerant by default).
    *
    * @return the iterator of the list
    */
   @Override
   public Iterator<K> iterator() {
+    return iterator(failFast);
+  }
+
+  /**
+   * Gets an iterator of the list in the given mode.
+   *
+   * The tolerant mode (failFast = false) avoids the
+   * ConcurrentModificationException that is thrown when elements are removed
+   * from the list during iteration without any extra work required from the
+   * user (like directly) using the class' Iterator. It checks the last
+   * returned key on every step and may skip or repeat keys when the list holds
+   * duplicates or keys are added during the iteration. Its remove() does
+   * nothing.
+   *
+   * The fail-fast mode (failFast = true) throws a
+   * ConcurrentModificationException if the list is changed other than through
+   * the iterator itself, and its remove() works in O(1): the removed keys are
+   * skipped over as the iteration continues and the list is compacted once,
+   * when the iteration ends (or as soon as the list is used in any other
+   * way). Removing m keys during one iteration thus costs O(n) instead of
+   * O(n*m).
+   *
+   * @param failFast true for the fail-fast mode, false for the tolerant mode
+   * @return the iterator of the list
+   */
+  public Iterator<K> iterator(boolean failFast) {
+    settle();
+    if (failFast) {
+      return new FailFastIterator();
+    }
     return new Iterator<K>() {
 
       private int j = 0;
@@ -465,6 +1205,165 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
     };
   }
 
+  /** The late-binding, fail-fast spliterator, see spliterator() */
+  private class ListSpliterator implements Spliterator<K> {
+
+    /** The index of the next key to read */
+    private int i;
+
+    /** The index after the last key, or -1 until the first use */
+    private int fence;
+
+    /** The modCount that the list must still have */
+    private int expectedModCount;
+
+    ListSpliterator(int origin, int fence, int expectedModCount) {
+      this.i = origin;
+      this.fence = fence;
+      this.expectedModCount = expectedModCount;
+    }
+
+    /**
+     * Binds the spliterator to the size of the list on its first use.
+     *
+     * @return the index after the last key
+     */
+    private int fence() {
+      if (fence < 0) {
+        settle();
+        expectedModCount = modCount;
+        fence = n;
+      }
+      return fence;
+    }
+
+    @Override
+    public Spliterator<K> trySplit() {
+      int hi = fence();
+      int mid = (i + hi) >>> 1;
+      if (i >= mid) {
+        return null;
+      }
+      ListSpliterator prefix = new ListSpliterator(i, mid, expectedModCount);
+      i = mid;
+      return prefix;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super K> action) {
+      int hi = fence();
+      if (i >= hi) {
+        return false;
+      }
+      action.accept(list[i++]);
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super K> action) {
+      int hi = fence();
+      K[] keys = list;
+      for (; i < hi && modCount == expectedModCount; i++) {
+        action.accept(keys[i]);
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
+
+    @Override
+    public long estimateSize() {
+      return fence() - i;
+    }
+
+    @Override
+    public int characteristics() {
+      return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED;
+    }
+  }
+
+  /** The fail-fast iterator, see iterator(boolean) */
+  private class FailFastIterator implements Iterator<K> {
+
+    /** The index of the next key to read */
+    private int r = 0;
+
+    /** The index the next key moves to (less than r once keys are removed) */
+    private int w = 0;
+
+    /** Whether remove() may be called */
+    private boolean canRemove = false;
+
+    /** The modCount that the list must still have */
+    private int expectedModCount = modCount;
+
+    @Override
+    public boolean hasNext() {
+      if (r < n) {
+        return true;
+      }
+      if (pending == this) {
+        compact();
+      }
+      return false;
+    }
+
+    @Override
+    public K next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (r >= n) {
+        throw new NoSuchElementException();
+      }
+      K k = list[r++];
+      if (pending == this) {
+        list[w] = k;
+      }
+      w++;
+      canRemove = true;
+      return k;
+    }
+
+    @Override
+    public void remove() {
+      if (!canRemove) {
+        throw new IllegalStateException("next() has not been called");
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      canRemove = false;
+      // the next key read moves into the removed key's place
+      w--;
+      pending = this;
+      expectedModCount = ++modCount;
+    }
+
+    /** Closes the gap left by removed keys */
+    private void compact() {
+      int gap = r - w;
+      System.arraycopy(list, r, list, w, n - r);
+      Arrays.fill(list, n - gap, n, null);
+      n -= gap;
+      r = w;
+      pending = null;
+    }
+  }
+
+  /**
+   * Compacts away the keys removed by a fail-fast iterator that is still
+   * running, so that the list can be used as usual.
+   */
+  private void settle() {
+    if (pending != null) {
+      pending.compact();
+    }
+  }
+
   /**
    * The iterator for the use of for-each enhanced forloop iteration, but skips
    * the first appearance of the specified key. For use when we want to compare
@@ -478,6 +1377,7 @@ public class CoreList<K extends Comparable<K>> implements Iterable<K> {
    *         specified key
    */
   public Iterable<K> otherThanKey(K k) {
+    settle();
     CoreList<K> copy = copy();
     copy.removeKey(k);
     return copy;
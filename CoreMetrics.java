@@ -0,0 +1,338 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*******************************************************************************
+ *
+ * CoreMetrics is an opt-in registry of counters and histograms that Core,
+ * CoreList and friends report to. Metrics are off by default; while off, a
+ * counter or histogram costs a single read of a static boolean.
+ *
+ * The library offers:
+ *  * on() and off() to start and stop recording.
+ *  * counter(name) and histogram(name) to get (or create) a metric.
+ *  * start() and Histogram.stop(start) for timing a block in nanoseconds.
+ *  * toJson() and toPrometheus() snapshots of every metric.
+ *  * writeTo(filename) to dump a snapshot to a file and serve(port) to expose
+ *    it on http://localhost:port/metrics for scraping.
+ *
+ * Counters and histograms are built on LongAdder, so many threads can record
+ * at once without contending on a single memory location. Histograms use
+ * power-of-two buckets: a value v lands in the bucket with upper bound
+ * 2^k - 1 for the smallest such k with v <= 2^k - 1. toPrometheus() lists
+ * the same buckets on every scrape. Values are recorded as they are, so
+ * histograms of durations (as timed by start() and stop()) hold nanoseconds
+ * and are named with a _nanoseconds suffix, such as core_sort_nanoseconds.
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreMetrics {
+
+  /** Defines whether metrics are recorded */
+  private static volatile boolean active = false;
+
+  /** The counters by name */
+  private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+
+  /** The histograms by name */
+  private static final Map<String, Histogram> HISTOGRAMS =
+    new ConcurrentHashMap<>();
+
+  /** Starts recording metrics */
+  public static void on() {
+    active = true;
+  }
+
+  /** Stops recording metrics (the recorded values are kept) */
+  public static void off() {
+    active = false;
+  }
+
+  /**
+   * Checks whether metrics are being recorded.
+   *
+   * @return true if metrics are being recorded
+   */
+  public static boolean isOn() {
+    return active;
+  }
+
+  /**
+   * Gets the counter with the given name, creating it if needed.
+   *
+   * @param name the name of the counter
+   * @return the counter with the given name
+   */
+  public static Counter counter(String name) {
+    return COUNTERS.computeIfAbsent(name, Counter::new);
+  }
+
+  /**
+   * Gets the histogram with the given name, creating it if needed.
+   *
+   * @param name the name of the histogram
+   * @return the histogram with the given name
+   */
+  public static Histogram histogram(String name) {
+    return HISTOGRAMS.computeIfAbsent(name, Histogram::new);
+  }
+
+  /**
+   * Gets the start time of a block to be timed with Histogram.stop(start).
+   *
+   * @return the current System.nanoTime() or 0 if metrics are off
+   */
+  public static long start() {
+    return active ? System.nanoTime() : 0;
+  }
+
+  /** Sets every counter and histogram back to zero */
+  public static void reset() {
+    for (Counter c : COUNTERS.values()) {
+      c.sum.reset();
+    }
+    for (Histogram h : HISTOGRAMS.values()) {
+      h.count.reset();
+      h.sum.reset();
+      for (LongAdder b : h.buckets) {
+        b.reset();
+      }
+    }
+  }
+
+  /***************************************************************************
+   *                             METRICS
+   ***************************************************************************/
+  /** A counter that only goes up */
+  public static class Counter {
+
+    /** The name of the counter */
+    private final String name;
+
+    /** The value of the counter */
+    private final LongAdder sum = new LongAdder();
+
+    private Counter(String name) {
+      this.name = name;
+    }
+
+    /** Adds one to the counter if metrics are on */
+    public void increment() {
+      if (active) {
+        sum.increment();
+      }
+    }
+
+    /**
+     * Adds the given amount to the counter if metrics are on.
+     *
+     * @param x the amount to add
+     */
+    public void add(long x) {
+      if (active) {
+        sum.add(x);
+      }
+    }
+
+    /**
+     * Retrieves the value of the counter.
+     *
+     * @return the value of the counter
+     */
+    public long get() {
+      return sum.sum();
+    }
+  }
+
+  /** A histogram of non-negative values in power-of-two buckets */
+  public static class Histogram {
+
+    /** The name of the histogram */
+    private final String name;
+
+    /** The amount of recorded values */
+    private final LongAdder count = new LongAdder();
+
+    /** The sum of the recorded values */
+    private final LongAdder sum = new LongAdder();
+
+    /** buckets[k] counts the values v with 2^(k-1) <= v < 2^k */
+    private final LongAdder[] buckets = new LongAdder[64];
+
+    private Histogram(String name) {
+      this.name = name;
+      for (int k = 0; k < buckets.length; k++) {
+        buckets[k] = new LongAdder();
+      }
+    }
+
+    /**
+     * Records the given value if metrics are on.
+     *
+     * @param v the value to record (negative values are recorded as 0)
+     */
+    public void record(long v) {
+      if (active) {
+        v = Math.max(v, 0);
+        count.increment();
+        sum.add(v);
+        buckets[64 - Long.numberOfLeadingZeros(v)].increment();
+      }
+    }
+
+    /**
+     * Records the nanoseconds elapsed since the given CoreMetrics.start().
+     *
+     * @param start the value returned by CoreMetrics.start()
+     */
+    public void stop(long start) {
+      if (start != 0) {
+        record(System.nanoTime() - start);
+      }
+    }
+
+    /**
+     * Retrieves the amount of recorded values.
+     *
+     * @return the amount of recorded values
+     */
+    public long count() {
+      return count.sum();
+    }
+
+    /**
+     * Retrieves the sum of the recorded values.
+     *
+     * @return the sum of the recorded values
+     */
+    public long sum() {
+      return sum.sum();
+    }
+  }
+
+  /***************************************************************************
+   *                             SNAPSHOTS
+   ***************************************************************************/
+  /**
+   * Gets a JSON snapshot of every metric, in the form
+   * {"counters": {name: value}, "histograms": {name: {"count": c, "sum": s,
+   * "buckets": {upperBound: count}}}}.
+   *
+   * @return the snapshot as JSON
+   */
+  public static String toJson() {
+    StringBuilder sb = new StringBuilder("{\"counters\": {");
+    String sep = "";
+    for (Counter c : new TreeMap<>(COUNTERS).values()) {
+      sb.append(sep).append('"').append(c.name).append("\": ").append(c.get());
+      sep = ", ";
+    }
+    sb.append("}, \"histograms\": {");
+    sep = "";
+    for (Histogram h : new TreeMap<>(HISTOGRAMS).values()) {
+      sb.append(sep).append('"').append(h.name).append("\": {\"count\": ")
+        .append(h.count()).append(", \"sum\": ").append(h.sum())
+        .append(", \"buckets\": {");
+      String bucketSep = "";
+      for (int k = 0; k < h.buckets.length; k++) {
+        long b = h.buckets[k].sum();
+        if (b != 0) {
+          sb.append(bucketSep).append('"').append(upperBound(k)).append("\": ")
+            .append(b);
+          bucketSep = ", ";
+        }
+      }
+      sb.append("}}");
+      sep = ", ";
+    }
+    return sb.append("}}").toString();
+  }
+
+  /**
+   * Gets a snapshot of every metric in the Prometheus text format.
+   *
+   * @return the snapshot in the Prometheus text format
+   */
+  public static String toPrometheus() {
+    StringBuilder sb = new StringBuilder();
+    for (Counter c : new TreeMap<>(COUNTERS).values()) {
+      sb.append("# TYPE ").append(c.name).append(" counter\n")
+        .append(c.name).append(' ').append(c.get()).append('\n');
+    }
+    for (Histogram h : new TreeMap<>(HISTOGRAMS).values()) {
+      sb.append("# TYPE ").append(h.name).append(" histogram\n");
+      // the same buckets on every scrape, the last one is left to +Inf
+      long cumulative = 0;
+      for (int k = 0; k < h.buckets.length - 1; k++) {
+        cumulative += h.buckets[k].sum();
+        sb.append(h.name).append("_bucket{le=\"").append(upperBound(k))
+          .append("\"} ").append(cumulative).append('\n');
+      }
+      sb.append(h.name).append("_bucket{le=\"+Inf\"} ").append(h.count())
+        .append('\n')
+        .append(h.name).append("_sum ").append(h.sum()).append('\n')
+        .append(h.name).append("_count ").append(h.count()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The largest value that lands in the given bucket.
+   *
+   * @param k the index of the bucket
+   * @return 2^k - 1
+   */
+  private static long upperBound(int k) {
+    return k == 63 ? Long.MAX_VALUE : (1L << k) - 1;
+  }
+
+  /**
+   * Writes a snapshot to the given file, as JSON if the filename ends with
+   * ".json" and in the Prometheus text format otherwise.
+   *
+   * @param filename the file to write the snapshot to
+   */
+  public static void writeTo(String filename) {
+    String snapshot = filename.endsWith(".json") ? toJson() : toPrometheus();
+    try (PrintWriter writer = new PrintWriter(filename)) {
+      writer.print(snapshot);
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Serves snapshots on http://localhost:port/metrics (Prometheus text) and
+   * http://localhost:port/metrics.json (JSON) from a background thread.
+   *
+   * @param port the port to listen on (0 picks a free port)
+   * @return the server, for retrieving its address or stopping it (its
+   *         dispatcher thread keeps the JVM alive until stop() is called)
+   */
+  public static HttpServer serve(int port) throws IOException {
+    HttpServer server = HttpServer.create(
+      new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext("/metrics", exchange -> {
+      boolean json = exchange.getRequestURI().getPath().endsWith(".json");
+      byte[] body = (json ? toJson() : toPrometheus())
+        .getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", json
+        ? "application/json" : "text/plain; version=0.0.4");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    return server;
+  }
+}
@@ -0,0 +1,824 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+
+/*******************************************************************************
+ *
+ * CoreOffHeapList is a list of fixed-width records kept outside of the Java
+ * heap, for datasets too large for CoreList. Elements are indexed by long, so
+ * the list is not limited to 2^31 elements, and since the garbage collector
+ * never has to scan or copy the elements, they do not add to GC pauses.
+ *
+ * The elements live in direct ByteBuffers of up to 1 GB each ("chunks"). A list
+ * can also be saved to a file and later mapped straight back into memory
+ * (map()), which makes reloading a large list almost instant. Changes to a
+ * mapped list are written through to the file until the first add(), which
+ * copies the last chunk into memory.
+ *
+ * The base class stores raw records of a given width (get/set/add through a
+ * ByteBuffer). OfInt, OfLong and OfDouble store primitives and offer the
+ * CoreList-style add(), get(), max(), min(), sort(), sorted() and filter().
+ *
+ * Memory is released only when the buffers are garbage collected, which
+ * happens some time after the list becomes unreachable (or after clear(),
+ * which drops the list's references to them). The total is bounded by
+ * -XX:MaxDirectMemorySize (direct chunks) or by the address space (mapped
+ * chunks).
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreOffHeapList {
+
+  /** The largest size of one chunk in bytes */
+  private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+  /** The smallest amount of elements a growing chunk starts with */
+  private static final int MIN_CHUNK_ELEMENTS = 16;
+
+  /** The width of each element in bytes */
+  protected final int width;
+
+  /** The log2 of the amount of elements in a full chunk */
+  private final int shift;
+
+  /** The mask giving the index of an element within its chunk */
+  private final int mask;
+
+  /** The chunks holding the elements (only the last one may be partial) */
+  private ByteBuffer[] chunks;
+
+  /** The amount of chunks in use */
+  private int chunkCount;
+
+  /** The amount of elements in the last chunk's buffer */
+  private int lastCapacity;
+
+  /** The current size of the list */
+  private long n;
+
+  /**
+   * Constructor for a list of records of the given width.
+   *
+   * @param width the width of each record in bytes
+   */
+  public CoreOffHeapList(int width) {
+    if (width <= 0 || width > MAX_CHUNK_BYTES) {
+      throw new IllegalArgumentException("illegal record width " + width);
+    }
+    this.width = width;
+    this.shift = 31 - Integer.numberOfLeadingZeros(MAX_CHUNK_BYTES / width);
+    this.mask = (1 << shift) - 1;
+    clear();
+  }
+
+  /**
+   * Retrieves the amount of elements in the list.
+   *
+   * @return the size of the list
+   */
+  public long size() {
+    return n;
+  }
+
+  /**
+   * Checks whether the list contains zero elements.
+   *
+   * @return true if the list is empty
+   */
+  public boolean isEmpty() {
+    return n == 0;
+  }
+
+  /**
+   * Retrieves the width of each element in bytes.
+   *
+   * @return the width of each element in bytes
+   */
+  public int width() {
+    return width;
+  }
+
+  /**
+   * Clears the list and drops its buffers. Their memory is freed once they are
+   * garbage collected, not right away.
+   */
+  public void clear() {
+    this.chunks = new ByteBuffer[1];
+    this.chunkCount = 0;
+    this.lastCapacity = 0;
+    this.n = 0;
+  }
+
+  /***************************************************************************
+   *                              RECORDS
+   ***************************************************************************/
+  /**
+   * Adds a record, read from the position of src, to the list. The position
+   * of src is left unchanged.
+   *
+   * @param src holds the record to add
+   */
+  public void add(ByteBuffer src) {
+    long i = append();
+    chunk(i).put(offset(i), src, src.position(), width);
+  }
+
+  /**
+   * Copies the record at the given index to the position of dst. The position
+   * of dst is left unchanged.
+   *
+   * @param i the index of the record
+   * @param dst receives the record
+   */
+  public void get(long i, ByteBuffer dst) {
+    check(i);
+    dst.put(dst.position(), chunk(i), offset(i), width);
+  }
+
+  /**
+   * Replaces the record at the given index with the one at the position of
+   * src. The position of src is left unchanged.
+   *
+   * @param i the index of the record
+   * @param src holds the new record
+   */
+  public void set(long i, ByteBuffer src) {
+    check(i);
+    chunk(i).put(offset(i), src, src.position(), width);
+  }
+
+  /***************************************************************************
+   *                            PERSISTENCE
+   ***************************************************************************/
+  /**
+   * Writes the elements of the list to the given file, replacing it. The file
+   * is only truncated after writing, so a list may be saved back to the file
+   * it was mapped from.
+   *
+   * @param filename the file to write the elements to
+   */
+  public void save(String filename) {
+    try (FileChannel ch = FileChannel.open(Paths.get(filename),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      write(ch);
+      ch.truncate(ch.position());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Writes the elements of the list to the given channel, starting at its
+   * current position.
+   *
+   * @param ch the channel to write the elements to
+   */
+  protected void write(WritableByteChannel ch) throws IOException {
+    for (int c = 0; c < chunkCount; c++) {
+      ByteBuffer chunk = chunks[c].duplicate();
+      chunk.position(0).limit((int) (elementsIn(c) * width));
+      while (chunk.hasRemaining()) {
+        ch.write(chunk);
+      }
+    }
+  }
+
+  /**
+   * Replaces the contents of the list with the given file, mapped into memory.
+   * Changes to the mapped elements are written through to the file; elements
+   * added past the end of the file are kept in memory until save() is called.
+   *
+   * Write-through ends for the elements of the last chunk (all of them for a
+   * file under 1 GB) at the first add(): the last chunk is only partly
+   * filled, so it is copied into a larger direct buffer to make room, and
+   * later changes to its elements stay in memory until save() is called.
+   *
+   * @param filename the file written by save()
+   */
+  protected void mapFrom(String filename) {
+    try (FileChannel ch = FileChannel.open(Paths.get(filename),
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      mapFrom(ch, 0, ch.size() / width, FileChannel.MapMode.READ_WRITE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Replaces the contents of the list with count elements mapped from the
+   * given channel, starting at the given byte position. The mapping stays
+   * valid after the channel is closed. With READ_ONLY, changing a mapped
+   * element throws a ReadOnlyBufferException. With READ_WRITE, changes are
+   * written through until the first add() (see mapFrom(filename)).
+   *
+   * @param ch the channel to map, opened for writing too unless READ_ONLY
+   * @param position the byte position of the first element
+   * @param count the amount of elements to map
+   * @param mode READ_ONLY, or READ_WRITE to write changes through to the file
+   */
+  protected void mapFrom(FileChannel ch, long position, long count,
+      FileChannel.MapMode mode) throws IOException {
+    clear();
+    long perChunk = 1L << shift;
+    int needed = (int) ((count + perChunk - 1) >>> shift);
+    chunks = new ByteBuffer[Math.max(needed, 1)];
+    for (int c = 0; c < needed; c++) {
+      long elements = Math.min(perChunk, count - c * perChunk);
+      chunks[c] = ch.map(mode, position + c * perChunk * width,
+        elements * width)
+        .order(ByteOrder.LITTLE_ENDIAN);
+      lastCapacity = (int) elements;
+    }
+    chunkCount = needed;
+    n = count;
+  }
+
+  /***************************************************************************
+   *                              CHUNKS
+   ***************************************************************************/
+  /**
+   * Makes space for one more element at the end of the list.
+   *
+   * @return the index of the new element
+   */
+  protected final long append() {
+    int inLast = (int) (n & mask);
+    if (chunkCount == 0 || (inLast == 0 && lastCapacity == mask + 1)) {
+      // the last chunk is full (or missing), start a new one
+      if (chunkCount == chunks.length) {
+        chunks = Arrays.copyOf(chunks, 2 * chunkCount);
+      }
+      lastCapacity = Math.min(MIN_CHUNK_ELEMENTS, mask + 1);
+      chunks[chunkCount++] = allocate(lastCapacity);
+    } else if (inLast == lastCapacity) {
+      // the last chunk is partial, double it
+      int capacity = Math.min(2 * lastCapacity, mask + 1);
+      ByteBuffer grown = allocate(capacity);
+      grown.put(0, chunks[chunkCount - 1], 0, lastCapacity * width);
+      chunks[chunkCount - 1] = grown;
+      lastCapacity = capacity;
+    }
+    return n++;
+  }
+
+  /**
+   * Allocates a direct buffer for the given amount of elements.
+   *
+   * @param elements the amount of elements
+   * @return the buffer
+   */
+  private ByteBuffer allocate(int elements) {
+    return ByteBuffer.allocateDirect(elements * width)
+      .order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * The amount of elements stored in the given chunk.
+   *
+   * @param c the index of the chunk
+   * @return the amount of elements in chunk c
+   */
+  private long elementsIn(int c) {
+    return Math.min(n - ((long) c << shift), 1L << shift);
+  }
+
+  /**
+   * Gets the chunk holding the element at the given index.
+   *
+   * @param i the index of the element
+   * @return the chunk holding it
+   */
+  protected final ByteBuffer chunk(long i) {
+    return chunks[(int) (i >>> shift)];
+  }
+
+  /**
+   * Gets the byte offset of the element at the given index in its chunk.
+   *
+   * @param i the index of the element
+   * @return the byte offset of the element in chunk(i)
+   */
+  protected final int offset(long i) {
+    return ((int) i & mask) * width;
+  }
+
+  /**
+   * Throws an IndexOutOfBoundsException if i is not an index of the list.
+   *
+   * @param i the index to check
+   */
+  protected final void check(long i) {
+    if (i < 0 || n <= i) {
+      throw new IndexOutOfBoundsException(i + " for size " + n);
+    }
+  }
+
+  /***************************************************************************
+   *                              SORTING
+   ***************************************************************************/
+  /**
+   * Swaps the elements at the given indices.
+   */
+  protected void swap(long i, long j) {
+    ByteBuffer ci = chunk(i);
+    ByteBuffer cj = chunk(j);
+    int oi = offset(i);
+    int oj = offset(j);
+    for (int b = 0; b < width; b++) {
+      byte t = ci.get(oi + b);
+      ci.put(oi + b, cj.get(oj + b));
+      cj.put(oj + b, t);
+    }
+  }
+
+  /**
+   * The base of the primitive lists, whose elements have an ordering and so
+   * can be sorted. Records have no ordering, so a list of records has no
+   * sort().
+   */
+  private abstract static class Sortable extends CoreOffHeapList {
+
+    /**
+     * Constructor for a list of elements of the given width.
+     *
+     * @param width the width of each element in bytes
+     */
+    Sortable(int width) {
+      super(width);
+    }
+
+    /**
+     * Compares the elements at the given indices.
+     *
+     * @return a negative number, zero or a positive number as element i is less
+     *         than, equal to or greater than element j
+     */
+    protected abstract int compare(long i, long j);
+
+    /**
+     * Sorts the list in ascending order in place, without copying it onto the
+     * heap. Uses an introsort: quicksort, falling back to heapsort when the
+     * recursion gets too deep and to insertion sort for short ranges.
+     */
+    public void sort() {
+      long size = size();
+      introsort(0, size - 1, 2 * (64 - Long.numberOfLeadingZeros(size)));
+    }
+
+    private void introsort(long lo, long hi, int depth) {
+      while (hi - lo > 16) {
+        if (depth-- == 0) {
+          heapsort(lo, hi);
+          return;
+        }
+        // median of three to lo
+        long mid = lo + ((hi - lo) >>> 1);
+        if (compare(mid, lo) < 0) {
+          swap(mid, lo);
+        }
+        if (compare(hi, lo) < 0) {
+          swap(hi, lo);
+        }
+        if (compare(hi, mid) < 0) {
+          swap(hi, mid);
+        }
+        swap(lo, mid);
+        // Hoare partition around the pivot at lo
+        long i = lo;
+        long j = hi + 1;
+        while (true) {
+          while (compare(++i, lo) < 0 && i < hi) { }
+          while (compare(lo, --j) < 0) { }
+          if (i >= j) {
+            break;
+          }
+          swap(i, j);
+        }
+        swap(lo, j);
+        // recurse into the smaller side, loop on the larger
+        if (j - lo < hi - j) {
+          introsort(lo, j - 1, depth);
+          lo = j + 1;
+        } else {
+          introsort(j + 1, hi, depth);
+          hi = j - 1;
+        }
+      }
+      for (long i = lo + 1; i <= hi; i++) {
+        for (long j = i; j > lo && compare(j, j - 1) < 0; j--) {
+          swap(j, j - 1);
+        }
+      }
+    }
+
+    private void heapsort(long lo, long hi) {
+      long count = hi - lo + 1;
+      for (long k = count / 2 - 1; k >= 0; k--) {
+        siftDown(lo, k, count);
+      }
+      for (long end = count - 1; end > 0; end--) {
+        swap(lo, lo + end);
+        siftDown(lo, 0, end);
+      }
+    }
+
+    private void siftDown(long lo, long k, long count) {
+      while (2 * k + 1 < count) {
+        long child = 2 * k + 1;
+        if (child + 1 < count && compare(lo + child, lo + child + 1) < 0) {
+          child++;
+        }
+        if (compare(lo + k, lo + child) >= 0) {
+          return;
+        }
+        swap(lo + k, lo + child);
+        k = child;
+      }
+    }
+  }
+
+  /***************************************************************************
+   *                            PRIMITIVES
+   ***************************************************************************/
+  /** An off-heap list of ints */
+  public static class OfInt extends Sortable {
+
+    /** Standard constructor */
+    public OfInt() {
+      super(Integer.BYTES);
+    }
+
+    /**
+     * Maps a file written by save() into a new list.
+     *
+     * @param filename the file to map
+     * @return the mapped list
+     */
+    public static OfInt map(String filename) {
+      OfInt list = new OfInt();
+      list.mapFrom(filename);
+      return list;
+    }
+
+    /**
+     * Adds the given value to the list.
+     *
+     * @param v a given value added to the list
+     */
+    public void add(int v) {
+      long i = append();
+      chunk(i).putInt(offset(i), v);
+    }
+
+    /**
+     * Gets the element with the specified index.
+     *
+     * @param i the index of the value we need to retrieve
+     * @return the value at the specified index i
+     */
+    public int get(long i) {
+      check(i);
+      return chunk(i).getInt(offset(i));
+    }
+
+    /**
+     * Replaces the element at the specified index.
+     *
+     * @param i the index of the value to replace
+     * @param v the new value
+     */
+    public void set(long i, int v) {
+      check(i);
+      chunk(i).putInt(offset(i), v);
+    }
+
+    /**
+     * Retrieves the largest element in the list.
+     *
+     * @return the largest value in the list
+     */
+    public int max() {
+      int max = get(0);
+      for (long i = 1; i < size(); i++) {
+        max = Math.max(max, chunk(i).getInt(offset(i)));
+      }
+      return max;
+    }
+
+    /**
+     * Retrieves the smallest element in the list.
+     *
+     * @return the smallest value in the list
+     */
+    public int min() {
+      int min = get(0);
+      for (long i = 1; i < size(); i++) {
+        min = Math.min(min, chunk(i).getInt(offset(i)));
+      }
+      return min;
+    }
+
+    /**
+     * Returns a filtered list where all elements fulfill the given predicate.
+     *
+     * @param predicate states whether an element fulfills a condition
+     * @return a list of which the elements all meet the predicate requirement
+     */
+    public OfInt filter(IntPredicate predicate) {
+      OfInt filter = new OfInt();
+      for (long i = 0; i < size(); i++) {
+        int v = chunk(i).getInt(offset(i));
+        if (predicate.test(v)) {
+          filter.add(v);
+        }
+      }
+      return filter;
+    }
+
+    /**
+     * Gets a sorted copy of the list in ascending order.
+     *
+     * @return a sorted copy of the list
+     */
+    public OfInt sorted() {
+      OfInt sorted = filter(v -> true);
+      sorted.sort();
+      return sorted;
+    }
+
+    @Override
+    protected int compare(long i, long j) {
+      return Integer.compare(chunk(i).getInt(offset(i)),
+        chunk(j).getInt(offset(j)));
+    }
+
+    @Override
+    protected void swap(long i, long j) {
+      ByteBuffer ci = chunk(i);
+      ByteBuffer cj = chunk(j);
+      int oi = offset(i);
+      int oj = offset(j);
+      int t = ci.getInt(oi);
+      ci.putInt(oi, cj.getInt(oj));
+      cj.putInt(oj, t);
+    }
+  }
+
+  /** An off-heap list of longs */
+  public static class OfLong extends Sortable {
+
+    /** Standard constructor */
+    public OfLong() {
+      super(Long.BYTES);
+    }
+
+    /**
+     * Maps a file written by save() into a new list.
+     *
+     * @param filename the file to map
+     * @return the mapped list
+     */
+    public static OfLong map(String filename) {
+      OfLong list = new OfLong();
+      list.mapFrom(filename);
+      return list;
+    }
+
+    /**
+     * Adds the given value to the list.
+     *
+     * @param v a given value added to the list
+     */
+    public void add(long v) {
+      long i = append();
+      chunk(i).putLong(offset(i), v);
+    }
+
+    /**
+     * Gets the element with the specified index.
+     *
+     * @param i the index of the value we need to retrieve
+     * @return the value at the specified index i
+     */
+    public long get(long i) {
+      check(i);
+      return chunk(i).getLong(offset(i));
+    }
+
+    /**
+     * Replaces the element at the specified index.
+     *
+     * @param i the index of the value to replace
+     * @param v the new value
+     */
+    public void set(long i, long v) {
+      check(i);
+      chunk(i).putLong(offset(i), v);
+    }
+
+    /**
+     * Retrieves the largest element in the list.
+     *
+     * @return the largest value in the list
+     */
+    public long max() {
+      long max = get(0);
+      for (long i = 1; i < size(); i++) {
+        max = Math.max(max, chunk(i).getLong(offset(i)));
+      }
+      return max;
+    }
+
+    /**
+     * Retrieves the smallest element in the list.
+     *
+     * @return the smallest value in the list
+     */
+    public long min() {
+      long min = get(0);
+      for (long i = 1; i < size(); i++) {
+        min = Math.min(min, chunk(i).getLong(offset(i)));
+      }
+      return min;
+    }
+
+    /**
+     * Returns a filtered list where all elements fulfill the given predicate.
+     *
+     * @param predicate states whether an element fulfills a condition
+     * @return a list of which the elements all meet the predicate requirement
+     */
+    public OfLong filter(LongPredicate predicate) {
+      OfLong filter = new OfLong();
+      for (long i = 0; i < size(); i++) {
+        long v = chunk(i).getLong(offset(i));
+        if (predicate.test(v)) {
+          filter.add(v);
+        }
+      }
+      return filter;
+    }
+
+    /**
+     * Gets a sorted copy of the list in ascending order.
+     *
+     * @return a sorted copy of the list
+     */
+    public OfLong sorted() {
+      OfLong sorted = filter(v -> true);
+      sorted.sort();
+      return sorted;
+    }
+
+    @Override
+    protected int compare(long i, long j) {
+      return Long.compare(chunk(i).getLong(offset(i)),
+        chunk(j).getLong(offset(j)));
+    }
+
+    @Override
+    protected void swap(long i, long j) {
+      ByteBuffer ci = chunk(i);
+      ByteBuffer cj = chunk(j);
+      int oi = offset(i);
+      int oj = offset(j);
+      long t = ci.getLong(oi);
+      ci.putLong(oi, cj.getLong(oj));
+      cj.putLong(oj, t);
+    }
+  }
+
+  /** An off-heap list of doubles */
+  public static class OfDouble extends Sortable {
+
+    /** Standard constructor */
+    public OfDouble() {
+      super(Double.BYTES);
+    }
+
+    /**
+     * Maps a file written by save() into a new list.
+     *
+     * @param filename the file to map
+     * @return the mapped list
+     */
+    public static OfDouble map(String filename) {
+      OfDouble list = new OfDouble();
+      list.mapFrom(filename);
+      return list;
+    }
+
+    /**
+     * Adds the given value to the list.
+     *
+     * @param v a given value added to the list
+     */
+    public void add(double v) {
+      long i = append();
+      chunk(i).putDouble(offset(i), v);
+    }
+
+    /**
+     * Gets the element with the specified index.
+     *
+     * @param i the index of the value we need to retrieve
+     * @return the value at the specified index i
+     */
+    public double get(long i) {
+      check(i);
+      return chunk(i).getDouble(offset(i));
+    }
+
+    /**
+     * Replaces the element at the specified index.
+     *
+     * @param i the index of the value to replace
+     * @param v the new value
+     */
+    public void set(long i, double v) {
+      check(i);
+      chunk(i).putDouble(offset(i), v);
+    }
+
+    /**
+     * Retrieves the largest element in the list.
+     *
+     * @return the largest value in the list (NaN if it contains NaN)
+     */
+    public double max() {
+      double max = get(0);
+      for (long i = 1; i < size(); i++) {
+        max = Math.max(max, chunk(i).getDouble(offset(i)));
+      }
+      return max;
+    }
+
+    /**
+     * Retrieves the smallest element in the list.
+     *
+     * @return the smallest value in the list (NaN if it contains NaN)
+     */
+    public double min() {
+      double min = get(0);
+      for (long i = 1; i < size(); i++) {
+        min = Math.min(min, chunk(i).getDouble(offset(i)));
+      }
+      return min;
+    }
+
+    /**
+     * Returns a filtered list where all elements fulfill the given predicate.
+     *
+     * @param predicate states whether an element fulfills a condition
+     * @return a list of which the elements all meet the predicate requirement
+     */
+    public OfDouble filter(DoublePredicate predicate) {
+      OfDouble filter = new OfDouble();
+      for (long i = 0; i < size(); i++) {
+        double v = chunk(i).getDouble(offset(i));
+        if (predicate.test(v)) {
+          filter.add(v);
+        }
+      }
+      return filter;
+    }
+
+    /**
+     * Gets a sorted copy of the list in ascending order (as by Double.compare,
+     * so NaN comes last).
+     *
+     * @return a sorted copy of the list
+     */
+    public OfDouble sorted() {
+      OfDouble sorted = filter(v -> true);
+      sorted.sort();
+      return sorted;
+    }
+
+    @Override
+    protected int compare(long i, long j) {
+      return Double.compare(chunk(i).getDouble(offset(i)),
+        chunk(j).getDouble(offset(j)));
+    }
+
+    @Override
+    protected void swap(long i, long j) {
+      ByteBuffer ci = chunk(i);
+      ByteBuffer cj = chunk(j);
+      int oi = offset(i);
+      int oj = offset(j);
+      double t = ci.getDouble(oi);
+      ci.putDouble(oi, cj.getDouble(oj));
+      cj.putDouble(oj, t);
+    }
+  }
+}
@@ -0,0 +1,439 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/*******************************************************************************
+ *
+ * CorePipeline reads every file in a folder, transforms its lines and writes
+ * the result to a file of the same name in another folder, overlapping the
+ * disk reads, the transforms and the disk writes of many files at once:
+ *
+ *   long lines = Core.pipeline("in/", "out/")
+ *     .map(line -> line.trim())
+ *     .batchSize(10_000)
+ *     .run();
+ *
+ * The library offers:
+ *  * Reading and writing on virtual threads where the JVM has them (Java 21
+ *    and up), and on a pool of daemon threads that grows as needed otherwise.
+ *  * Transforms on a bounded pool of platform threads (one per processor by
+ *    default), since they are CPU-bound.
+ *  * Lines travel between the stages in batches of batchSize(n) lines.
+ *  * Backpressure: each file holds at most queueSize(n) batches in flight, so
+ *    a reader blocks when the transforms or the writer fall behind, and at
+ *    most openFiles(n) files are in flight at once.
+ *  * The lines of a file are written in the order they were read, however
+ *    the transforms of its batches are scheduled.
+ *
+ * Reading and writing use the default charset, like Core.readFrom() and
+ * Core.writeTo().
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CorePipeline {
+
+  /** Marks the end of a file in the queue of its batches */
+  private static final Future<ArrayList<String>> END =
+    CompletableFuture.completedFuture(null);
+
+  /** Files written by pipelines */
+  private static final CoreMetrics.Counter FILES =
+    CoreMetrics.counter("corepipeline_files_total");
+
+  /** Lines written by pipelines */
+  private static final CoreMetrics.Counter LINES =
+    CoreMetrics.counter("corepipeline_lines_total");
+
+  /** The folder to read the files from */
+  private final File from;
+
+  /** The folder to write the files to */
+  private final Path to;
+
+  /** The amount of lines per batch */
+  private int batchSize = 1000;
+
+  /** The amount of batches per file that may be in flight */
+  private int queueSize = 4;
+
+  /** The amount of files that may be in flight */
+  private int openFiles = 16;
+
+  /** The amount of threads running the transforms */
+  private int workers = Runtime.getRuntime().availableProcessors();
+
+  /** The transforms of a batch, one after the other */
+  private Function<ArrayList<String>, ArrayList<String>> transform =
+    batch -> batch;
+
+  /**
+   * Constructor for a pipeline from the files in one folder to files with
+   * the same names in another (which is created if needed).
+   *
+   * @param from the folder to read the files from
+   * @param to the folder to write the files to
+   */
+  public CorePipeline(String from, String to) {
+    this.from = new File(from);
+    this.to = Path.of(to);
+  }
+
+  /**
+   * Sets the amount of lines that travel between the stages together.
+   *
+   * @param batchSize the amount of lines per batch (1000 by default)
+   * @return this pipeline
+   */
+  public CorePipeline batchSize(int batchSize) {
+    this.batchSize = positive(batchSize);
+    return this;
+  }
+
+  /**
+   * Sets the amount of batches of a file that may be read but not yet
+   * written, after which reading the file waits.
+   *
+   * @param queueSize the amount of batches per file (4 by default)
+   * @return this pipeline
+   */
+  public CorePipeline queueSize(int queueSize) {
+    this.queueSize = positive(queueSize);
+    return this;
+  }
+
+  /**
+   * Sets the amount of files that may be read and written at once.
+   *
+   * @param openFiles the amount of files in flight (16 by default)
+   * @return this pipeline
+   */
+  public CorePipeline openFiles(int openFiles) {
+    this.openFiles = positive(openFiles);
+    return this;
+  }
+
+  /**
+   * Sets the amount of threads that run the transforms.
+   *
+   * @param workers the amount of threads (one per processor by default)
+   * @return this pipeline
+   */
+  public CorePipeline workers(int workers) {
+    this.workers = positive(workers);
+    return this;
+  }
+
+  /**
+   * Adds a transform of whole batches, run after the transforms added
+   * before it. It may change the batch it is given.
+   *
+   * @param transform computes the lines to write from a batch of lines
+   * @return this pipeline
+   */
+  public CorePipeline transform(
+      Function<ArrayList<String>, ArrayList<String>> transform) {
+    this.transform = this.transform.andThen(transform);
+    return this;
+  }
+
+  /**
+   * Adds a transform of single lines, run after the transforms added before
+   * it. Lines mapped to null are dropped.
+   *
+   * @param map computes the line to write from a line, or null to drop it
+   * @return this pipeline
+   */
+  public CorePipeline map(Function<String, String> map) {
+    return transform(batch -> {
+      ArrayList<String> mapped = new ArrayList<>(batch.size());
+      for (String line : batch) {
+        String m = map.apply(line);
+        if (m != null) {
+          mapped.add(m);
+        }
+      }
+      return mapped;
+    });
+  }
+
+  /**
+   * Checks that the given setting is positive.
+   *
+   * @param x the setting
+   * @return x
+   */
+  private static int positive(int x) {
+    if (x <= 0) {
+      throw new IllegalArgumentException(x + " is not positive");
+    }
+    return x;
+  }
+
+  /***************************************************************************
+   *                              RUNNING
+   ***************************************************************************/
+  /**
+   * Runs the pipeline over every file in the folder and waits for it to
+   * finish. If a file fails, its partial output is deleted and no more files
+   * are started, but the other files in flight are still read and written
+   * to their end. Then the first failure is thrown. If the calling thread is
+   * interrupted, every file in flight stops and its output is deleted.
+   *
+   * @return the amount of lines written
+   * @throws IllegalArgumentException if both folders are the same, since
+   *         every file would be overwritten while it is read
+   */
+  public long run() throws IOException {
+    File[] files = from.listFiles(File::isFile);
+    if (files == null) {
+      throw new FileNotFoundException(from + " is not a folder");
+    }
+    if (Files.exists(to) && Files.isSameFile(from.toPath(), to)) {
+      throw new IllegalArgumentException(from + " and " + to
+        + " are the same folder");
+    }
+    Arrays.sort(files);
+    Files.createDirectories(to);
+    ExecutorService io = ioExecutor();
+    ExecutorService cpu = Executors.newFixedThreadPool(workers,
+      daemon("corepipeline-cpu"));
+    Semaphore open = new Semaphore(openFiles);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    LongAdder lines = new LongAdder();
+    ArrayList<Future<?>> writers = new ArrayList<>();
+    try {
+      for (File file : files) {
+        open.acquire();
+        if (failure.get() != null) {
+          break;
+        }
+        BlockingQueue<Future<ArrayList<String>>> queue =
+          new ArrayBlockingQueue<>(queueSize);
+        AtomicBoolean stop = new AtomicBoolean();
+        io.execute(() -> read(file, queue, cpu, stop, failure));
+        writers.add(io.submit(() ->
+          write(file, queue, lines, open, stop, failure)));
+      }
+      for (Future<?> writer : writers) {
+        writer.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure.compareAndSet(null, e);
+      io.shutdownNow();
+      cpu.shutdownNow();
+    } catch (ExecutionException e) {
+      failure.compareAndSet(null, e.getCause());
+    } finally {
+      io.shutdown();
+      cpu.shutdown();
+    }
+    Throwable t = failure.get();
+    if (t instanceof IOException) {
+      throw (IOException) t;
+    } else if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    } else if (t != null) {
+      throw new IOException(t);
+    }
+    return lines.sum();
+  }
+
+  /**
+   * Reads the given file in batches, hands each batch to the transforms and
+   * queues the pending result, ending with END whatever happens.
+   *
+   * @param file the file to read
+   * @param queue the pending batches of the file, in order
+   * @param cpu the pool running the transforms
+   * @param stop set by the writer once the file failed
+   * @param failure the first failure of the pipeline
+   */
+  private void read(File file, BlockingQueue<Future<ArrayList<String>>> queue,
+      ExecutorService cpu, AtomicBoolean stop,
+      AtomicReference<Throwable> failure) {
+    Future<ArrayList<String>> last = END;
+    try (BufferedReader reader =
+        Files.newBufferedReader(file.toPath(), Charset.defaultCharset())) {
+      ArrayList<String> batch = new ArrayList<>(batchSize);
+      String line;
+      while (!stop.get() && (line = reader.readLine()) != null) {
+        batch.add(line);
+        if (batch.size() == batchSize) {
+          queue.put(transform(cpu, batch));
+          batch = new ArrayList<>(batchSize);
+        }
+      }
+      if (!batch.isEmpty()) {
+        queue.put(transform(cpu, batch));
+      }
+    } catch (InterruptedException e) {
+      failure.compareAndSet(null, e);
+      Thread.currentThread().interrupt();
+    } catch (IOException | RuntimeException e) {
+      // let the writer find the failure in order
+      last = CompletableFuture.failedFuture(e);
+    } catch (Error e) {
+      // not a failure of this file alone, so start no more files right away
+      failure.compareAndSet(null, e);
+      last = CompletableFuture.failedFuture(e);
+    } finally {
+      end(queue, last, failure);
+    }
+  }
+
+  /**
+   * Queues the last entries of a file: the given failure, if any, then END.
+   * Gives up if the thread is interrupted, since then the pipeline is being
+   * shut down and the writer is interrupted as well.
+   *
+   * @param queue the pending batches of the file, in order
+   * @param last a failed batch, or END
+   * @param failure the first failure of the pipeline
+   */
+  private static void end(BlockingQueue<Future<ArrayList<String>>> queue,
+      Future<ArrayList<String>> last, AtomicReference<Throwable> failure) {
+    try {
+      if (last != END) {
+        queue.put(last);
+      }
+      queue.put(END);
+    } catch (InterruptedException e) {
+      failure.compareAndSet(null, e);
+    }
+  }
+
+  /**
+   * Schedules the transforms of the given batch.
+   *
+   * @param cpu the pool running the transforms
+   * @param batch the lines to transform
+   * @return the pending result
+   */
+  private Future<ArrayList<String>> transform(ExecutorService cpu,
+      ArrayList<String> batch) {
+    return cpu.submit(() -> transform.apply(batch));
+  }
+
+  /**
+   * Writes the transformed batches of the given file as they complete, in
+   * order, until END. After a failure it stops the reader and keeps taking
+   * batches (without writing them) so that the reader is never left
+   * waiting. The output of a file that did not finish is deleted.
+   *
+   * @param file the file that was read
+   * @param queue the pending batches of the file, in order
+   * @param lines counts the lines written
+   * @param open the permits for files in flight, released when done
+   * @param stop tells the reader of the file to stop
+   * @param failure the first failure of the pipeline
+   */
+  private void write(File file, BlockingQueue<Future<ArrayList<String>>> queue,
+      LongAdder lines, Semaphore open, AtomicBoolean stop,
+      AtomicReference<Throwable> failure) {
+    Path out = to.resolve(file.getName());
+    boolean done = false;
+    try {
+      try (BufferedWriter writer = Files.newBufferedWriter(out,
+          Charset.defaultCharset())) {
+        for (Future<ArrayList<String>> f; (f = queue.take()) != END;) {
+          ArrayList<String> batch = f.get();
+          for (String line : batch) {
+            writer.write(line);
+            writer.newLine();
+          }
+          lines.add(batch.size());
+          LINES.add(batch.size());
+        }
+      } catch (IOException | RuntimeException | ExecutionException e) {
+        failure.compareAndSet(null,
+          e instanceof ExecutionException ? e.getCause() : e);
+        stop.set(true);
+        while (queue.take() != END) {
+          // the reader stops at its next line now that stop is set
+        }
+        return;
+      }
+      done = true;
+      FILES.increment();
+    } catch (InterruptedException e) {
+      failure.compareAndSet(null, e);
+    } finally {
+      if (!done) {
+        delete(out, failure);
+      }
+      open.release();
+    }
+  }
+
+  /**
+   * Deletes the partial output of a file that did not finish, so that it is
+   * not mistaken for a complete one.
+   *
+   * @param out the output of the file
+   * @param failure the first failure of the pipeline
+   */
+  private static void delete(Path out, AtomicReference<Throwable> failure) {
+    try {
+      Files.deleteIfExists(out);
+    } catch (IOException e) {
+      Throwable first = failure.get();
+      if (first != null && first != e) {
+        first.addSuppressed(e);
+      }
+    }
+  }
+
+  /**
+   * Creates the executor for reading and writing: one virtual thread per
+   * task if the JVM has them, else a pool of daemon threads that grows as
+   * needed. Looked up by reflection so that this compiles on Java 17.
+   *
+   * @return the executor for blocking I/O
+   */
+  private static ExecutorService ioExecutor() {
+    try {
+      return (ExecutorService) Executors.class
+        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return Executors.newCachedThreadPool(daemon("corepipeline-io"));
+    }
+  }
+
+  /**
+   * Creates a factory of named daemon threads, so that a pipeline never
+   * keeps the JVM alive.
+   *
+   * @param name the name of the threads
+   * @return the thread factory
+   */
+  private static ThreadFactory daemon(String name) {
+    return r -> {
+      Thread t = new Thread(r, name);
+      t.setDaemon(true);
+      return t;
+    };
+  }
+}
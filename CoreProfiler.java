@@ -0,0 +1,279 @@
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*******************************************************************************
+ *
+ * CoreProfiler is an opt-in sampling profiler that runs inside the JVM, for
+ * finding hot paths in production without attaching an agent:
+ *
+ *   try (CoreProfiler profiler = new CoreProfiler().start()) {
+ *     work();
+ *     profiler.writeTo("profile.folded");
+ *   }
+ *
+ * The library offers:
+ *  * A daemon thread that snapshots the stacks of the selected threads (all
+ *    threads by default) at a fixed interval, up to a depth limit, through
+ *    ThreadMXBean.getThreadInfo(). Only the top frames are captured, so deep
+ *    stacks cost no more than shallow ones.
+ *  * CPU mode (the default), which counts only threads that are RUNNABLE, and
+ *    wall clock mode, which counts blocked and waiting threads as well.
+ *  * folded() and writeTo(), which aggregate the samples as folded stacks:
+ *    one line per distinct stack, its frames from the root to the top
+ *    separated by ';', then a space and the amount of samples. Flame graph
+ *    tools (flamegraph.pl, speedscope, async-profiler's converters) read this
+ *    format directly.
+ *
+ * Like every profiler that samples from Java, the JVM can only report stacks
+ * at safepoints, so samples lean towards the nearest safepoint. Stacks deeper
+ * than the depth limit lose their bottom frames. Configure a profiler before
+ * start(); its results may be read while it runs.
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreProfiler implements AutoCloseable {
+
+  /** The bean that snapshots thread stacks */
+  private static final ThreadMXBean THREADS =
+    ManagementFactory.getThreadMXBean();
+
+  /** The samples taken by every profiler */
+  private static final CoreMetrics.Counter SAMPLES =
+    CoreMetrics.counter("coreprofiler_samples_total");
+
+  /** The time between snapshots, in milliseconds */
+  private long intervalMillis = 10;
+
+  /** The most frames captured per stack */
+  private int depth = 64;
+
+  /** The ids of the threads to sample, or null to sample every thread */
+  private long[] ids;
+
+  /** Whether blocked and waiting threads are sampled too */
+  private boolean wallClock;
+
+  /** The amount of samples per folded stack */
+  private final ConcurrentHashMap<String, LongAdder> stacks =
+    new ConcurrentHashMap<>();
+
+  /** The amount of samples taken */
+  private final LongAdder samples = new LongAdder();
+
+  /** The timer taking snapshots while the profiler runs, else null */
+  private ScheduledExecutorService timer;
+
+  /***************************************************************************
+   *                             SETTINGS
+   ***************************************************************************/
+  /**
+   * Sets the time between snapshots (10 ms by default).
+   *
+   * @param millis the time between snapshots in milliseconds
+   * @return this profiler
+   */
+  public CoreProfiler interval(long millis) {
+    if (millis <= 0) {
+      throw new IllegalArgumentException("interval must be positive: "
+        + millis);
+    }
+    this.intervalMillis = millis;
+    return this;
+  }
+
+  /**
+   * Sets the most frames captured per stack (64 by default).
+   *
+   * @param depth the most frames captured per stack
+   * @return this profiler
+   */
+  public CoreProfiler depth(int depth) {
+    if (depth <= 0) {
+      throw new IllegalArgumentException("depth must be positive: " + depth);
+    }
+    this.depth = depth;
+    return this;
+  }
+
+  /**
+   * Samples only the given threads instead of every thread.
+   *
+   * @param threads the threads to sample
+   * @return this profiler
+   */
+  @SuppressWarnings("deprecation")
+  public CoreProfiler threads(Thread... threads) {
+    ids = new long[threads.length];
+    for (int i = 0; i < threads.length; i++) {
+      ids[i] = threads[i].getId();
+    }
+    return this;
+  }
+
+  /**
+   * Sets whether blocked and waiting threads are sampled too (wall clock
+   * time) or only RUNNABLE ones (CPU time, the default).
+   *
+   * @param wallClock true to sample threads in every state
+   * @return this profiler
+   */
+  public CoreProfiler wallClock(boolean wallClock) {
+    this.wallClock = wallClock;
+    return this;
+  }
+
+  /***************************************************************************
+   *                             SAMPLING
+   ***************************************************************************/
+  /**
+   * Starts taking snapshots on a daemon thread.
+   *
+   * @return this profiler
+   */
+  public synchronized CoreProfiler start() {
+    if (timer != null) {
+      throw new IllegalStateException("the profiler is already running");
+    }
+    timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "coreprofiler");
+      t.setDaemon(true);
+      return t;
+    });
+    timer.scheduleAtFixedRate(this::sample, intervalMillis, intervalMillis,
+      TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  /** Stops taking snapshots, waiting for one in progress to finish */
+  public synchronized void stop() {
+    if (timer == null) {
+      return;
+    }
+    timer.shutdown();
+    try {
+      timer.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    timer = null;
+  }
+
+  /** Stops taking snapshots */
+  @Override
+  public void close() {
+    stop();
+  }
+
+  /**
+   * Takes one snapshot of the selected threads now, other than the calling
+   * thread. start() calls it at every interval.
+   */
+  @SuppressWarnings("deprecation")
+  public void sample() {
+    long self = Thread.currentThread().getId();
+    long[] selected = ids != null ? ids : THREADS.getAllThreadIds();
+    for (ThreadInfo info : THREADS.getThreadInfo(selected, depth)) {
+      if (info == null || info.getThreadId() == self
+          || (!wallClock && info.getThreadState() != Thread.State.RUNNABLE)) {
+        continue;
+      }
+      StackTraceElement[] frames = info.getStackTrace();
+      if (frames.length == 0) {
+        continue;
+      }
+      stacks.computeIfAbsent(fold(frames), k -> new LongAdder()).increment();
+      samples.increment();
+      SAMPLES.increment();
+    }
+  }
+
+  /**
+   * Folds the given stack into one line, from the root to the top.
+   *
+   * @param frames the frames, from the top to the root
+   * @return the frames separated by ';'
+   */
+  private static String fold(StackTraceElement[] frames) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = frames.length - 1; i >= 0; i--) {
+      sb.append(frames[i].getClassName()).append('.')
+        .append(frames[i].getMethodName());
+      if (i > 0) {
+        sb.append(';');
+      }
+    }
+    return sb.toString();
+  }
+
+  /***************************************************************************
+   *                              RESULTS
+   ***************************************************************************/
+  /**
+   * Retrieves the amount of samples taken, one per thread per snapshot.
+   *
+   * @return the amount of samples taken
+   */
+  public long samples() {
+    return samples.sum();
+  }
+
+  /**
+   * Formats the samples as folded stacks, the most sampled stack first.
+   *
+   * @return one line per distinct stack, "frame;frame;frame count"
+   */
+  public String folded() {
+    ArrayList<Map.Entry<String, Long>> entries = new ArrayList<>();
+    for (Map.Entry<String, LongAdder> e : stacks.entrySet()) {
+      entries.add(Map.entry(e.getKey(), e.getValue().sum()));
+    }
+    entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, Long> e : entries) {
+      sb.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Writes the samples as folded stacks to the given file.
+   *
+   * @param filename the file to write the folded stacks to
+   */
+  public void writeTo(String filename) {
+    try (PrintWriter writer = new PrintWriter(filename)) {
+      writer.print(folded());
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /** Discards the samples taken so far */
+  public void reset() {
+    stacks.clear();
+    samples.reset();
+  }
+
+  /**
+   * Describes the settings of this profiler.
+   *
+   * @return the interval, depth, threads and mode
+   */
+  @Override
+  public String toString() {
+    return "CoreProfiler[" + intervalMillis + " ms, depth " + depth + ", "
+      + (ids == null ? "all" : Arrays.toString(ids)) + " threads, "
+      + (wallClock ? "wall clock" : "cpu") + "]";
+  }
+}
@@ -0,0 +1,300 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+/*******************************************************************************
+ *
+ * CoreQuantileSketch estimates percentiles of a stream of keys in a small,
+ * bounded amount of memory, for when the data keeps growing and percentiles
+ * are asked for again and again. It is a KLL sketch (Karnin, Lang and
+ * Liberty): keys are kept in levels, where a key in level h stands for 2^h
+ * keys of the stream. When a level fills up it is sorted and every second key
+ * (starting at a random offset) is promoted to the next level, halving it.
+ *
+ * The library offers:
+ *  * add() in O(1) amortized time.
+ *  * percentile(), median() and rank() estimates. The estimated rank of a key
+ *    is off by about 1.65% of count() with k = 200 (the default) and shrinks
+ *    as k grows.
+ *  * Memory in the order of 3k keys, however many keys were added.
+ *
+ * Query results are cached until the next add(), so repeated queries between
+ * adds cost a binary search each. A CoreQuantileSketch is not thread safe.
+ *
+ * @param <K> the data type of the Keys
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreQuantileSketch<K> {
+
+  /** The accuracy parameter, the capacity of the highest level */
+  private final int k;
+
+  /** The ordering of the keys, or null for their natural ordering */
+  private final Comparator<? super K> comparator;
+
+  /** The random offsets of the compactions */
+  private final CoreRandom random = new CoreRandom();
+
+  /** levels[h] holds the keys that each stand for 2^h added keys */
+  private Object[][] levels = new Object[4][];
+
+  /** The amount of keys in each level */
+  private int[] sizes = new int[4];
+
+  /** The amount of keys each level may hold before it is compacted */
+  private int[] capacities = new int[4];
+
+  /** The amount of levels in use */
+  private int height = 0;
+
+  /** The amount of keys held in all the levels together */
+  private int held = 0;
+
+  /** The amount of keys held at which the levels must be compacted */
+  private int maxHeld = 0;
+
+  /** The amount of keys added */
+  private long count = 0;
+
+  /** The held keys in order, or null if a key was added since the query */
+  private Object[] sorted;
+
+  /** cumulative[i] is the total weight of sorted[0..i] */
+  private long[] cumulative;
+
+  /** Standard constructor with k = 200 and the natural ordering of the keys */
+  public CoreQuantileSketch() {
+    this(200, null);
+  }
+
+  /**
+   * Constructor with k = 200, ordered by the given comparator.
+   *
+   * @param comparator the ordering of the keys
+   */
+  public CoreQuantileSketch(Comparator<? super K> comparator) {
+    this(200, comparator);
+  }
+
+  /**
+   * Constructor with the given accuracy, ordered by the given comparator.
+   *
+   * @param k the accuracy parameter (at least 8), the rank error is in the
+   *        order of 1/k
+   * @param comparator the ordering of the keys, or null for their natural
+   *        ordering
+   */
+  public CoreQuantileSketch(int k, Comparator<? super K> comparator) {
+    if (k < 8) {
+      throw new IllegalArgumentException("k must be at least 8 but is " + k);
+    }
+    this.k = k;
+    this.comparator = comparator;
+    addLevel();
+  }
+
+  /**
+   * Retrieves the amount of keys added to the sketch.
+   *
+   * @return the amount of keys added
+   */
+  public long count() {
+    return count;
+  }
+
+  /**
+   * Adds the given key to the sketch.
+   *
+   * @param key a given key added to the sketch
+   */
+  public void add(K key) {
+    append(0, key);
+    count++;
+    sorted = null;
+    if (held >= maxHeld) {
+      compress();
+    }
+  }
+
+  /***************************************************************************
+   *                              QUERIES
+   ***************************************************************************/
+  /**
+   * Estimates the given percentile of the added keys, by the nearest rank
+   * method: the smallest key such that at least p% of the keys are less than
+   * or equal to it.
+   *
+   * @param p the percentile, from 0 to 100
+   * @return an estimate of the key at the given percentile
+   */
+  @SuppressWarnings("unchecked")
+  public K percentile(double p) {
+    if (!(0 <= p && p <= 100)) {
+      throw new IllegalArgumentException("percentile " + p
+        + " is not within 0 and 100");
+    }
+    query();
+    long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+    int i = Arrays.binarySearch(cumulative, rank);
+    return (K) sorted[i >= 0 ? i : -i - 1];
+  }
+
+  /**
+   * Estimates the (lower) median of the added keys.
+   *
+   * @return an estimate of the median key
+   */
+  public K median() {
+    return percentile(50);
+  }
+
+  /**
+   * Estimates the amount of added keys that are less than or equal to the
+   * given key.
+   *
+   * @param key the key to rank
+   * @return an estimate of its rank, from 0 to count()
+   */
+  @SuppressWarnings("unchecked")
+  public long rank(K key) {
+    if (count == 0) {
+      return 0;
+    }
+    query();
+    // the first held key greater than the given key
+    int lo = 0;
+    int hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (compare((K) sorted[mid], key) <= 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo == 0 ? 0 : cumulative[lo - 1];
+  }
+
+  /**
+   * Merges the sorted levels into the sorted keys and their cumulative
+   * weights, unless that was done since the last add().
+   */
+  @SuppressWarnings("unchecked")
+  private void query() {
+    if (count == 0) {
+      throw new NoSuchElementException("the sketch is empty");
+    }
+    if (sorted != null) {
+      return;
+    }
+    for (int h = 0; h < height; h++) {
+      Arrays.sort((K[]) levels[h], 0, sizes[h], comparator);
+    }
+    sorted = new Object[held];
+    cumulative = new long[held];
+    int[] next = new int[height];
+    long total = 0;
+    for (int i = 0; i < held; i++) {
+      // take the smallest key at the front of a level
+      int best = -1;
+      for (int h = 0; h < height; h++) {
+        if (next[h] < sizes[h] && (best < 0 || compare((K) levels[h][next[h]],
+            (K) levels[best][next[best]]) < 0)) {
+          best = h;
+        }
+      }
+      sorted[i] = levels[best][next[best]++];
+      total += 1L << best;
+      cumulative[i] = total;
+    }
+  }
+
+  /***************************************************************************
+   *                            COMPACTION
+   ***************************************************************************/
+  /** Compacts full levels, from the lowest up, until enough space is free */
+  private void compress() {
+    for (int h = 0; h < height; h++) {
+      if (sizes[h] >= capacities[h]) {
+        if (h + 1 == height) {
+          addLevel();
+        }
+        compact(h);
+        if (held < maxHeld) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Sorts level h and promotes every second key (starting at a random offset)
+   * to level h + 1, where it stands for twice as many keys. An odd key out
+   * stays behind.
+   *
+   * @param h the level to compact
+   */
+  @SuppressWarnings("unchecked")
+  private void compact(int h) {
+    Object[] level = levels[h];
+    int m = sizes[h];
+    Arrays.sort((K[]) level, 0, m, comparator);
+    int keep = m & 1;
+    for (int i = keep + (random.nextBoolean() ? 1 : 0); i < m; i += 2) {
+      append(h + 1, level[i]);
+    }
+    Arrays.fill(level, keep, m, null);
+    sizes[h] = keep;
+    held -= m - keep;
+  }
+
+  /**
+   * Adds an empty level on top, which raises the capacity of the others: the
+   * highest level may hold k keys, shrinking by a factor of 2/3 per level
+   * below it.
+   */
+  private void addLevel() {
+    if (height == levels.length) {
+      levels = Arrays.copyOf(levels, 2 * height);
+      sizes = Arrays.copyOf(sizes, 2 * height);
+      capacities = Arrays.copyOf(capacities, 2 * height);
+    }
+    levels[height] = new Object[16];
+    height++;
+    maxHeld = 0;
+    for (int h = 0; h < height; h++) {
+      capacities[h] =
+        (int) Math.ceil(k * Math.pow(2.0 / 3, height - h - 1)) + 1;
+      maxHeld += capacities[h];
+    }
+  }
+
+  /**
+   * Adds the given key to the given level.
+   *
+   * @param h the level
+   * @param key the key
+   */
+  private void append(int h, Object key) {
+    if (sizes[h] == levels[h].length) {
+      levels[h] = Arrays.copyOf(levels[h], 2 * sizes[h]);
+    }
+    levels[h][sizes[h]++] = key;
+    held++;
+  }
+
+  /**
+   * Compares the two keys by the ordering of the sketch.
+   *
+   * @return a negative number, zero or a positive number as a is less than,
+   *         equal to or greater than b
+   */
+  @SuppressWarnings("unchecked")
+  private int compare(K a, K b) {
+    if (comparator != null) {
+      return comparator.compare(a, b);
+    }
+    return ((Comparable<? super K>) a).compareTo(b);
+  }
+}
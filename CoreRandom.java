@@ -0,0 +1,183 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.random.RandomGenerator;
+
+/*******************************************************************************
+ *
+ * CoreRandom is a small, fast and seedable random number generator. It uses
+ * the xoshiro256** algorithm for generation and SplitMix64 for seeding, which
+ * gives us good statistical quality at the cost of a few shifts and xors per
+ * number.
+ *
+ * The library offers:
+ *  * Seeding: the same seed always produces the same sequence.
+ *  * split() returns a new, independently seeded generator for handing to
+ *    another thread or task.
+ *  * current() returns a generator owned by the calling thread.
+ *  * fill() fills a double[] or long[] in bulk without allocating.
+ *  * All of java.util.random.RandomGenerator (nextInt(bound), nextGaussian()
+ *    etc.) on top of nextLong().
+ *
+ * A CoreRandom is not thread safe; use current() or split() to give each
+ * thread its own.
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreRandom implements RandomGenerator {
+
+  /** The SplitMix64 increment (the odd integer closest to 2^64 / phi) */
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  /** Hands out distinct seeds to unseeded generators */
+  private static final AtomicLong SEEDER = new AtomicLong(
+    mix(System.nanoTime()) ^ mix(System.currentTimeMillis()));
+
+  /** The generator of each thread */
+  private static final ThreadLocal<CoreRandom> CURRENT =
+    ThreadLocal.withInitial(CoreRandom::new);
+
+  /** The 256 bits of xoshiro256** state */
+  private long s0, s1, s2, s3;
+
+  /** Constructor seeding the generator from a global, time-based sequence */
+  public CoreRandom() {
+    this(SEEDER.getAndAdd(4 * GOLDEN_GAMMA));
+  }
+
+  /**
+   * Constructor using the given seed. The seed is scrambled before it is
+   * expanded into the four state words, so that nearby seeds (such as seed
+   * and seed + GOLDEN_GAMMA) do not start from overlapping states.
+   *
+   * @param seed the seed of the generator
+   */
+  public CoreRandom(long seed) {
+    seed = mix(seed);
+    s0 = mix(seed += GOLDEN_GAMMA);
+    s1 = mix(seed += GOLDEN_GAMMA);
+    s2 = mix(seed += GOLDEN_GAMMA);
+    s3 = mix(seed + GOLDEN_GAMMA);
+  }
+
+  /**
+   * Retrieves the generator of the calling thread.
+   *
+   * @return the generator owned by the calling thread
+   */
+  public static CoreRandom current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * The SplitMix64 finalizer, which scrambles the bits of z.
+   *
+   * @param z the value to scramble
+   * @return the scrambled value
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * Gets the next 64 random bits.
+   *
+   * @return a random long
+   */
+  @Override
+  public long nextLong() {
+    long result = Long.rotateLeft(s1 * 5, 7) * 9;
+    long t = s1 << 17;
+    s2 ^= s0;
+    s3 ^= s1;
+    s1 ^= s2;
+    s0 ^= s3;
+    s2 ^= t;
+    s3 = Long.rotateLeft(s3, 45);
+    return result;
+  }
+
+  /**
+   * Gets a random double in [0, 1) using the upper 53 bits of nextLong().
+   *
+   * @return a random double in [0, 1)
+   */
+  @Override
+  public double nextDouble() {
+    return (nextLong() >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * Fills the given array with random doubles in [0, 1).
+   *
+   * @param a the array to fill
+   */
+  public void fill(double[] a) {
+    fill(a, 0, a.length);
+  }
+
+  /**
+   * Fills the given range of the array with random doubles in [0, 1).
+   *
+   * @param a the array to fill
+   * @param from the first index to fill (inclusive)
+   * @param to the last index to fill (exclusive)
+   */
+  public void fill(double[] a, int from, int to) {
+    long x0 = s0, x1 = s1, x2 = s2, x3 = s3;
+    for (int i = from; i < to; i++) {
+      long result = Long.rotateLeft(x1 * 5, 7) * 9;
+      long t = x1 << 17;
+      x2 ^= x0;
+      x3 ^= x1;
+      x1 ^= x2;
+      x0 ^= x3;
+      x2 ^= t;
+      x3 = Long.rotateLeft(x3, 45);
+      a[i] = (result >>> 11) * 0x1.0p-53;
+    }
+    s0 = x0; s1 = x1; s2 = x2; s3 = x3;
+  }
+
+  /**
+   * Fills the given array with random longs.
+   *
+   * @param a the array to fill
+   */
+  public void fill(long[] a) {
+    fill(a, 0, a.length);
+  }
+
+  /**
+   * Fills the given range of the array with random longs.
+   *
+   * @param a the array to fill
+   * @param from the first index to fill (inclusive)
+   * @param to the last index to fill (exclusive)
+   */
+  public void fill(long[] a, int from, int to) {
+    long x0 = s0, x1 = s1, x2 = s2, x3 = s3;
+    for (int i = from; i < to; i++) {
+      long result = Long.rotateLeft(x1 * 5, 7) * 9;
+      long t = x1 << 17;
+      x2 ^= x0;
+      x3 ^= x1;
+      x1 ^= x2;
+      x0 ^= x3;
+      x2 ^= t;
+      x3 = Long.rotateLeft(x3, 45);
+      a[i] = result;
+    }
+    s0 = x0; s1 = x1; s2 = x2; s3 = x3;
+  }
+
+  /**
+   * Creates a new generator seeded from this one. The two generators can then
+   * be used independently, for instance on different threads.
+   *
+   * @return a new generator seeded from this one
+   */
+  public CoreRandom split() {
+    return new CoreRandom(mix(nextLong()));
+  }
+}
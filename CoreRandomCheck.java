@@ -0,0 +1,224 @@
+import java.lang.reflect.Field;
+
+/*******************************************************************************
+ *
+ * CoreRandomCheck is a statistical sanity check of CoreRandom. It runs
+ * headless from the command line next to the benchmarks:
+ *
+ *   javac *.java && java CoreRandomCheck [seed]
+ *
+ * Every line reports a check, its statistic and its bound. The program exits
+ * with status 1 if any check fails. The checks are:
+ *  * Reproducibility: two generators of the same seed give the same sequence.
+ *  * Mean: the mean of uniform doubles lies within 5 standard errors of 0.5.
+ *  * Uniformity: a chi-square test of the doubles over 100 equal buckets.
+ *  * Bit balance: every bit of nextLong() is set about half of the time.
+ *  * Serial correlation: consecutive doubles of one generator are
+ *    uncorrelated.
+ *  * Independence: neighbouring seeds (seed and seed + GOLDEN_GAMMA),
+ *    consecutive unseeded generators and split() start from states that
+ *    share no 64-bit word, and their streams are uncorrelated and never
+ *    coincide. The output scrambler hides shared state words from the
+ *    stream tests, so the states are compared directly.
+ *
+ * The bounds are loose enough (about 5 standard deviations, or p = 0.001 for
+ * the chi-square test) that a sound generator passes them with any seed.
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreRandomCheck {
+
+  /** The amount of draws per check */
+  private static final int N = 1_000_000;
+
+  /** The SplitMix64 increment that CoreRandom steps its seeds by */
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+  /** Whether every check so far passed */
+  private static boolean passed = true;
+
+  /**
+   * Runs the checks.
+   *
+   * @param args optionally the seed of the checked generators
+   */
+  public static void main(String[] args) {
+    long seed = args.length > 0 ? Long.parseLong(args[0]) : 42;
+
+    // reproducibility
+    CoreRandom a = new CoreRandom(seed);
+    CoreRandom b = new CoreRandom(seed);
+    long differences = 0;
+    for (int i = 0; i < N; i++) {
+      if (a.nextLong() != b.nextLong()) {
+        differences++;
+      }
+    }
+    check("same seed, different draws", differences, 0);
+
+    // mean and uniformity
+    double[] d = new double[N];
+    new CoreRandom(seed).fill(d);
+    double sum = 0;
+    long[] buckets = new long[100];
+    for (double x : d) {
+      sum += x;
+      buckets[(int) (x * buckets.length)]++;
+    }
+    // a uniform double has a variance of 1/12
+    check("|mean - 0.5| / standard error",
+      Math.abs(sum / N - 0.5) / Math.sqrt(1.0 / 12 / N), 5);
+    double expected = (double) N / buckets.length;
+    double chi = 0;
+    for (long c : buckets) {
+      chi += (c - expected) * (c - expected) / expected;
+    }
+    // the 0.999 quantile of the chi-square distribution with 99 degrees
+    check("chi-square of 100 buckets", chi, 148.23);
+
+    // bit balance
+    long[] bits = new long[64];
+    CoreRandom r = new CoreRandom(seed);
+    for (int i = 0; i < N; i++) {
+      long x = r.nextLong();
+      for (int bit = 0; bit < 64; bit++) {
+        bits[bit] += (x >>> bit) & 1;
+      }
+    }
+    double worst = 0;
+    for (long ones : bits) {
+      worst = Math.max(worst, Math.abs(ones - N / 2.0) / Math.sqrt(N / 4.0));
+    }
+    check("worst bit |ones - N/2| / standard deviation", worst, 5);
+
+    // serial correlation of one stream
+    double[] shifted = new double[N];
+    System.arraycopy(d, 1, shifted, 0, N - 1);
+    shifted[N - 1] = d[0];
+    check("serial correlation * sqrt(N)",
+      Math.abs(correlation(d, shifted)) * Math.sqrt(N), 5);
+
+    // independence of neighbouring and split streams
+    independent("seed vs seed + GOLDEN_GAMMA", new CoreRandom(seed),
+      new CoreRandom(seed + GOLDEN_GAMMA));
+    independent("consecutive unseeded generators", new CoreRandom(),
+      new CoreRandom());
+    CoreRandom parent = new CoreRandom(seed);
+    independent("parent vs split()", parent, parent.split());
+
+    if (!passed) {
+      Core.println("FAILED");
+      System.exit(1);
+    }
+    Core.println("PASSED");
+  }
+
+  /**
+   * Checks that the streams of the two generators are uncorrelated, also
+   * when one lags the other by up to 4 draws (which catches generators whose
+   * states are shifted copies of each other), and never give the same long
+   * at the same position.
+   *
+   * @param name the name of the check
+   * @param first a generator
+   * @param second another generator
+   */
+  private static void independent(String name, CoreRandom first,
+      CoreRandom second) {
+    long[] s = state(first);
+    long[] t = state(second);
+    long shared = 0;
+    for (long u : s) {
+      for (long v : t) {
+        if (u == v) {
+          shared++;
+        }
+      }
+    }
+    check(name + ", shared state words", shared, 0);
+    long[] x = new long[N];
+    long[] y = new long[N];
+    first.fill(x);
+    second.fill(y);
+    long equal = 0;
+    for (int i = 0; i < N; i++) {
+      if (x[i] == y[i]) {
+        equal++;
+      }
+    }
+    check(name + ", equal draws", equal, 0);
+    double worst = 0;
+    for (int lag = -4; lag <= 4; lag++) {
+      double[] u = new double[N - 8];
+      double[] v = new double[N - 8];
+      for (int i = 0; i < u.length; i++) {
+        u[i] = (x[i + 4] >>> 11) * 0x1.0p-53;
+        v[i] = (y[i + 4 + lag] >>> 11) * 0x1.0p-53;
+      }
+      worst = Math.max(worst, Math.abs(correlation(u, v)));
+    }
+    check(name + ", worst lagged correlation * sqrt(N)",
+      worst * Math.sqrt(N), 5);
+  }
+
+  /**
+   * Reads the four state words of the given generator.
+   *
+   * @param r the generator
+   * @return its state words
+   */
+  private static long[] state(CoreRandom r) {
+    long[] state = new long[4];
+    try {
+      for (int i = 0; i < state.length; i++) {
+        Field f = CoreRandom.class.getDeclaredField("s" + i);
+        f.setAccessible(true);
+        state[i] = f.getLong(r);
+      }
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("cannot read the state", e);
+    }
+    return state;
+  }
+
+  /**
+   * Computes the Pearson correlation of the two samples.
+   *
+   * @param u a sample
+   * @param v another sample of the same length
+   * @return the correlation, in [-1, 1]
+   */
+  private static double correlation(double[] u, double[] v) {
+    double mu = 0;
+    double mv = 0;
+    for (int i = 0; i < u.length; i++) {
+      mu += u[i];
+      mv += v[i];
+    }
+    mu /= u.length;
+    mv /= v.length;
+    double uv = 0;
+    double uu = 0;
+    double vv = 0;
+    for (int i = 0; i < u.length; i++) {
+      uv += (u[i] - mu) * (v[i] - mv);
+      uu += (u[i] - mu) * (u[i] - mu);
+      vv += (v[i] - mv) * (v[i] - mv);
+    }
+    return uv / Math.sqrt(uu * vv);
+  }
+
+  /**
+   * Prints the outcome of one check and records a failure.
+   *
+   * @param name the name of the check
+   * @param value the statistic
+   * @param bound the largest value that passes
+   */
+  private static void check(String name, double value, double bound) {
+    boolean ok = value <= bound;
+    passed &= ok;
+    Core.println(String.format("%-4s %-56s %10.3f <= %.3f", ok ? "ok" : "FAIL",
+      name, value, bound));
+  }
+}
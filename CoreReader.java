@@ -0,0 +1,415 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/*******************************************************************************
+ *
+ * CoreReader is a fast replacement for Scanner when reading numbers, words
+ * and lines from System.in (or any InputStream). It reads the stream in large
+ * chunks into a buffer it keeps, splits tokens on whitespace byte by byte
+ * without regular expressions and parses numbers straight from the bytes,
+ * without creating a String per token.
+ *
+ * The library offers:
+ *  * stdin(), the one reader of System.in, shared by Core.read(),
+ *    Core.readTerminal() and Core.freeze(). It never closes System.in.
+ *  * nextInt(), nextLong(), nextDouble(), next() and nextLine(), mixed as
+ *    with Scanner: nextLine() after nextInt() returns the rest of the line.
+ *  * hasNext() and hasNextLine().
+ *  * nextLine(pool), which deduplicates repeated lines through a CoreInterner
+ *    without decoding the ones it has seen.
+ *  * parseInt(), parseLong() and parseDouble() of a range of a byte[].
+ *
+ * Tokens are separated by whitespace (every byte up to ' '). Lines are
+ * decoded with the default charset, like Scanner(System.in) does. Every
+ * method is synchronized, so one reader can be shared between threads, but
+ * reading the same stream outside of the reader skips whatever the reader has
+ * buffered.
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreReader {
+
+  /** The reader of System.in, created on first use */
+  private static CoreReader stdin;
+
+  /** The stream to read from */
+  private final InputStream in;
+
+  /** The bytes read from the stream */
+  private final byte[] buf;
+
+  /** The position of the next byte in buf and the amount of bytes in buf */
+  private int pos, len;
+
+  /** The bytes of the current token or of a line longer than buf */
+  private byte[] token = new byte[64];
+
+  /** The charset lines and words are decoded with */
+  private final Charset charset = Charset.defaultCharset();
+
+  /**
+   * Constructor for a reader of the given stream with a 64 KB buffer.
+   *
+   * @param in the stream to read from
+   */
+  public CoreReader(InputStream in) {
+    this(in, 1 << 16);
+  }
+
+  /**
+   * Constructor for a reader of the given stream.
+   *
+   * @param in the stream to read from
+   * @param bufferSize the amount of bytes read from the stream at once
+   */
+  public CoreReader(InputStream in, int bufferSize) {
+    this.in = in;
+    this.buf = new byte[bufferSize];
+  }
+
+  /**
+   * Gets the reader of System.in, which is shared by every caller.
+   *
+   * @return the reader of System.in
+   */
+  public static synchronized CoreReader stdin() {
+    if (stdin == null) {
+      stdin = new CoreReader(System.in);
+    }
+    return stdin;
+  }
+
+  /***************************************************************************
+   *                              READING
+   ***************************************************************************/
+  /**
+   * Checks whether another token remains, skipping the whitespace before it.
+   *
+   * @return true if another token remains
+   */
+  public synchronized boolean hasNext() {
+    return skipWhitespace();
+  }
+
+  /**
+   * Checks whether another line remains (which may be empty).
+   *
+   * @return true if another line remains
+   */
+  public synchronized boolean hasNextLine() {
+    return pos < len || fill();
+  }
+
+  /**
+   * Reads the next token as an int.
+   *
+   * @return the next token as an int
+   */
+  public synchronized int nextInt() {
+    return parseInt(token, 0, readToken());
+  }
+
+  /**
+   * Reads the next token as a long.
+   *
+   * @return the next token as a long
+   */
+  public synchronized long nextLong() {
+    return parseLong(token, 0, readToken());
+  }
+
+  /**
+   * Reads the next token as a double.
+   *
+   * @return the next token as a double
+   */
+  public synchronized double nextDouble() {
+    return parseDouble(token, 0, readToken());
+  }
+
+  /**
+   * Reads the next token as a String.
+   *
+   * @return the next token
+   */
+  public synchronized String next() {
+    return new String(token, 0, readToken(), charset);
+  }
+
+  /**
+   * Reads the rest of the current line, without the line terminator ("\n"
+   * or "\r\n").
+   *
+   * @return the rest of the current line
+   */
+  public synchronized String nextLine() {
+    return nextLine(null);
+  }
+
+  /**
+   * Reads the rest of the current line, without the line terminator, through
+   * the given pool: a line that is pooled already is returned without
+   * creating a new String.
+   *
+   * @param pool the pool that deduplicates the lines, or null for none
+   * @return the rest of the current line
+   */
+  public synchronized String nextLine(CoreInterner pool) {
+    if (!hasNextLine()) {
+      throw new NoSuchElementException("no line found");
+    }
+    // the common case: the whole line is in the buffer
+    for (int i = pos; i < len; i++) {
+      if (buf[i] == '\n') {
+        String line = decode(buf, pos, i, pool);
+        pos = i + 1;
+        return line;
+      }
+    }
+    // the line runs past the buffer, gather it in token
+    int n = 0;
+    while (pos < len || fill()) {
+      byte b = buf[pos++];
+      if (b == '\n') {
+        break;
+      }
+      if (n == token.length) {
+        token = Arrays.copyOf(token, 2 * n);
+      }
+      token[n++] = b;
+    }
+    return decode(token, 0, n, pool);
+  }
+
+  /**
+   * Decodes the given bytes of a line, dropping a trailing '\r'.
+   *
+   * @return the line as a String
+   */
+  private String decode(byte[] b, int from, int to, CoreInterner pool) {
+    if (to > from && b[to - 1] == '\r') {
+      to--;
+    }
+    if (pool != null) {
+      return pool.intern(b, from, to);
+    }
+    return new String(b, from, to - from, charset);
+  }
+
+  /**
+   * Skips whitespace and copies the next token into token.
+   *
+   * @return the length of the token
+   */
+  private int readToken() {
+    if (!skipWhitespace()) {
+      throw new NoSuchElementException("no token found");
+    }
+    int n = 0;
+    while (pos < len || fill()) {
+      byte b = buf[pos];
+      if (b >= 0 && b <= ' ') {
+        break;
+      }
+      if (n == token.length) {
+        token = Arrays.copyOf(token, 2 * n);
+      }
+      token[n++] = b;
+      pos++;
+    }
+    return n;
+  }
+
+  /**
+   * Skips whitespace.
+   *
+   * @return true if a token follows, false at the end of the stream
+   */
+  private boolean skipWhitespace() {
+    while (pos < len || fill()) {
+      byte b = buf[pos];
+      if (b < 0 || b > ' ') {
+        return true;
+      }
+      pos++;
+    }
+    return false;
+  }
+
+  /**
+   * Reads the next chunk of the stream into the buffer.
+   *
+   * @return false at the end of the stream
+   */
+  private boolean fill() {
+    try {
+      int n;
+      do {
+        n = in.read(buf, 0, buf.length);
+      } while (n == 0);
+      pos = 0;
+      len = Math.max(n, 0);
+      return n > 0;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /***************************************************************************
+   *                              PARSING
+   ***************************************************************************/
+  /** The powers of ten that are exact doubles */
+  private static final double[] POWERS_OF_TEN = new double[23];
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+    }
+  }
+
+  /**
+   * Parses the given bytes as a decimal int, like Integer.parseInt().
+   *
+   * @param b the bytes
+   * @param from the index of the first byte
+   * @param to the index after the last byte
+   * @return the int
+   */
+  public static int parseInt(byte[] b, int from, int to) {
+    long x = parseLong(b, from, to);
+    if ((int) x != x) {
+      throw error("an int", b, from, to);
+    }
+    return (int) x;
+  }
+
+  /**
+   * Parses the given bytes as a decimal long, like Long.parseLong().
+   *
+   * @param b the bytes
+   * @param from the index of the first byte
+   * @param to the index after the last byte
+   * @return the long
+   */
+  public static long parseLong(byte[] b, int from, int to) {
+    int i = from;
+    boolean negative = i < to && b[i] == '-';
+    if (i < to && (b[i] == '-' || b[i] == '+')) {
+      i++;
+    }
+    if (i == to) {
+      throw error("a long", b, from, to);
+    }
+    // accumulate negatively, since Long.MIN_VALUE has no positive twin
+    long x = 0;
+    for (; i < to; i++) {
+      int d = b[i] - '0';
+      if (d < 0 || d > 9 || x < Long.MIN_VALUE / 10
+          || (x = 10 * x) < Long.MIN_VALUE + d) {
+        throw error("a long", b, from, to);
+      }
+      x -= d;
+    }
+    if (!negative) {
+      if (x == Long.MIN_VALUE) {
+        throw error("a long", b, from, to);
+      }
+      x = -x;
+    }
+    return x;
+  }
+
+  /**
+   * Parses the given bytes as a double, like Double.parseDouble(). Plain
+   * decimals with at most 15 significant digits and a small exponent (the
+   * usual case) are converted exactly with one multiplication or division;
+   * everything else falls back to Double.parseDouble().
+   *
+   * @param b the bytes
+   * @param from the index of the first byte
+   * @param to the index after the last byte
+   * @return the double
+   */
+  public static double parseDouble(byte[] b, int from, int to) {
+    int i = from;
+    boolean negative = i < to && b[i] == '-';
+    if (i < to && (b[i] == '-' || b[i] == '+')) {
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean any = false;
+    for (; i < to && b[i] >= '0' && b[i] <= '9'; i++) {
+      any = true;
+      if (digits > 0 || b[i] != '0') {
+        if (digits < 18) {
+          mantissa = 10 * mantissa + (b[i] - '0');
+        } else {
+          exponent++;
+        }
+        digits++;
+      }
+    }
+    if (i < to && b[i] == '.') {
+      for (i++; i < to && b[i] >= '0' && b[i] <= '9'; i++) {
+        any = true;
+        if (digits > 0 || b[i] != '0') {
+          if (digits < 18) {
+            mantissa = 10 * mantissa + (b[i] - '0');
+            exponent--;
+          }
+          digits++;
+        } else {
+          exponent--;
+        }
+      }
+    }
+    if (any && i < to && (b[i] == 'e' || b[i] == 'E')) {
+      int j = i + 1;
+      boolean negativeExponent = j < to && b[j] == '-';
+      if (j < to && (b[j] == '-' || b[j] == '+')) {
+        j++;
+      }
+      int e = 0;
+      boolean expDigits = false;
+      for (; j < to && b[j] >= '0' && b[j] <= '9' && e < 100_000; j++) {
+        e = 10 * e + (b[j] - '0');
+        expDigits = true;
+      }
+      if (expDigits) {
+        exponent += negativeExponent ? -e : e;
+        i = j;
+      }
+    }
+    // Clinger's fast path: both the mantissa and the power of ten are exact
+    if (any && i == to && digits <= 15 && Math.abs(exponent) <= 22) {
+      double d = mantissa;
+      d = exponent < 0 ? d / POWERS_OF_TEN[-exponent]
+        : d * POWERS_OF_TEN[exponent];
+      return negative ? -d : d;
+    }
+    try {
+      return Double.parseDouble(new String(b, from, to - from,
+        Charset.defaultCharset()));
+    } catch (NumberFormatException e) {
+      throw error("a double", b, from, to);
+    }
+  }
+
+  /**
+   * Creates the exception for bytes that are not a number of the given
+   * type (such as "an int").
+   *
+   * @return the exception
+   */
+  private static NumberFormatException error(String type, byte[] b, int from,
+      int to) {
+    return new NumberFormatException("not " + type + ": \""
+      + new String(b, from, to - from, Charset.defaultCharset()) + "\"");
+  }
+}
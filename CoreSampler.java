@@ -0,0 +1,496 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.random.RandomGenerator;
+
+/*******************************************************************************
+ *
+ * CoreSampler draws random samples for Monte Carlo loops, where draws happen
+ * millions of times per second and must not allocate.
+ *
+ * The library offers:
+ *  * Alias: weighted sampling of indices in O(1) per draw (Vose's alias
+ *    method), for weights that do not change.
+ *  * Fenwick: weighted sampling of indices in O(log n) per draw, for weights
+ *    that change between draws (set() and add() in O(log n)).
+ *  * reservoir() samples k keys uniformly from a stream of unknown length in
+ *    a single pass (Li's Algorithm L, which skips ahead instead of drawing a
+ *    random number per key).
+ *  * distinct() samples k distinct indices without replacement in O(k).
+ *
+ * Every draw takes a RandomGenerator, or uses the calling thread's
+ * CoreRandom when none is given, so the same seed gives the same samples.
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreSampler {
+
+  /** Up to this many picks, distinct() checks for repeats by a linear scan */
+  private static final int SCAN_LIMIT = 64;
+
+  /** The most picks distinct() keeps in a table (of up to 2^30 slots) */
+  private static final int MAX_TABLE_KEYS = 1 << 29;
+
+  /***************************************************************************
+   *                           WEIGHTED SAMPLING
+   ***************************************************************************/
+  /**
+   * Samples index i with probability weights[i] / (sum of the weights) in
+   * O(1) per draw, after an O(n) setup.
+   */
+  public static class Alias {
+
+    /** The chance of keeping the index drawn for each column */
+    private final double[] prob;
+
+    /** The index each column gives otherwise */
+    private final int[] alias;
+
+    /**
+     * Builds the alias table of the given weights.
+     *
+     * @param weights the non-negative weights, of which at least one is
+     *        positive
+     */
+    public Alias(double[] weights) {
+      int n = weights.length;
+      double total = total(weights);
+      prob = new double[n];
+      alias = new int[n];
+      // split the columns into those below and above the average weight
+      int[] small = new int[n];
+      int[] large = new int[n];
+      int s = 0;
+      int l = 0;
+      double[] scaled = new double[n];
+      for (int i = 0; i < n; i++) {
+        scaled[i] = weights[i] * n / total;
+        if (scaled[i] < 1) {
+          small[s++] = i;
+        } else {
+          large[l++] = i;
+        }
+      }
+      // fill every small column up to the average with a large one
+      while (s > 0 && l > 0) {
+        int less = small[--s];
+        int more = large[--l];
+        prob[less] = scaled[less];
+        alias[less] = more;
+        scaled[more] -= 1 - scaled[less];
+        if (scaled[more] < 1) {
+          small[s++] = more;
+        } else {
+          large[l++] = more;
+        }
+      }
+      // what is left is full, up to rounding errors
+      while (l > 0) {
+        prob[large[--l]] = 1;
+      }
+      while (s > 0) {
+        prob[small[--s]] = 1;
+      }
+    }
+
+    /**
+     * Retrieves the amount of indices.
+     *
+     * @return the amount of weights the table was built from
+     */
+    public int size() {
+      return prob.length;
+    }
+
+    /**
+     * Draws an index using the calling thread's CoreRandom.
+     *
+     * @return an index drawn with a probability proportional to its weight
+     */
+    public int next() {
+      return next(CoreRandom.current());
+    }
+
+    /**
+     * Draws an index using the given generator.
+     *
+     * @param random the generator to draw with
+     * @return an index drawn with a probability proportional to its weight
+     */
+    public int next(RandomGenerator random) {
+      // one double picks both the column and the coin flip within it
+      double u = random.nextDouble() * prob.length;
+      int i = (int) u;
+      return u - i < prob[i] ? i : alias[i];
+    }
+  }
+
+  /**
+   * Samples index i with probability weight(i) / total() in O(log n) per
+   * draw, where weights can be changed in O(log n) between draws. It keeps a
+   * Fenwick (binary indexed) tree of the weights.
+   */
+  public static class Fenwick {
+
+    /** tree[j] is the sum of the weights of the indices (j - (j & -j), j] */
+    private final double[] tree;
+
+    /** The weights */
+    private final double[] weights;
+
+    /** The sum of the weights */
+    private double total;
+
+    /**
+     * Constructor for the given amount of indices, all with weight 0.
+     *
+     * @param n the amount of indices
+     */
+    public Fenwick(int n) {
+      this.tree = new double[n + 1];
+      this.weights = new double[n];
+    }
+
+    /**
+     * Constructor using the given weights, in O(n).
+     *
+     * @param weights the non-negative weights
+     */
+    public Fenwick(double[] weights) {
+      this(weights.length);
+      int n = weights.length;
+      for (int i = 0; i < n; i++) {
+        check(weights[i]);
+        this.weights[i] = weights[i];
+        tree[i + 1] += weights[i];
+        int parent = (i + 1) + ((i + 1) & -(i + 1));
+        if (parent <= n) {
+          tree[parent] += tree[i + 1];
+        }
+        total += weights[i];
+      }
+    }
+
+    /**
+     * Retrieves the amount of indices.
+     *
+     * @return the amount of indices
+     */
+    public int size() {
+      return weights.length;
+    }
+
+    /**
+     * Retrieves the weight of the given index.
+     *
+     * @param i the index
+     * @return the weight of index i
+     */
+    public double weight(int i) {
+      return weights[i];
+    }
+
+    /**
+     * Retrieves the sum of the weights.
+     *
+     * @return the sum of the weights
+     */
+    public double total() {
+      return total;
+    }
+
+    /**
+     * Sets the weight of the given index.
+     *
+     * @param i the index
+     * @param w the new, non-negative weight
+     */
+    public void set(int i, double w) {
+      check(w);
+      add(i, w - weights[i]);
+    }
+
+    /**
+     * Adds the given amount to the weight of the given index.
+     *
+     * @param i the index
+     * @param delta the amount to add (the weight may not become negative)
+     */
+    public void add(int i, double delta) {
+      if (i < 0 || weights.length <= i) {
+        throw new IndexOutOfBoundsException(i + " for size " + weights.length);
+      }
+      check(weights[i] + delta);
+      weights[i] += delta;
+      total += delta;
+      for (int j = i + 1; j < tree.length; j += j & -j) {
+        tree[j] += delta;
+      }
+    }
+
+    /**
+     * Draws an index using the calling thread's CoreRandom.
+     *
+     * @return an index drawn with a probability proportional to its weight
+     */
+    public int next() {
+      return next(CoreRandom.current());
+    }
+
+    /**
+     * Draws an index using the given generator.
+     *
+     * @param random the generator to draw with
+     * @return an index drawn with a probability proportional to its weight
+     */
+    public int next(RandomGenerator random) {
+      if (!(total > 0)) {
+        throw new IllegalStateException("all weights are 0");
+      }
+      double target = random.nextDouble() * total;
+      // descend the tree to the first index whose prefix sum passes target
+      int n = weights.length;
+      int pos = 0;
+      for (int step = Integer.highestOneBit(n); step > 0; step >>= 1) {
+        if (pos + step <= n && tree[pos + step] <= target) {
+          pos += step;
+          target -= tree[pos];
+        }
+      }
+      // rounding errors can run past the last index with a weight
+      while (pos > 0 && (pos == n || weights[pos] == 0)) {
+        pos--;
+      }
+      return pos;
+    }
+  }
+
+  /**
+   * Sums the given weights, which must be non-negative with a positive sum.
+   *
+   * @param weights the weights
+   * @return the sum of the weights
+   */
+  private static double total(double[] weights) {
+    double total = 0;
+    for (double w : weights) {
+      check(w);
+      total += w;
+    }
+    if (!(total > 0) || Double.isInfinite(total)) {
+      throw new IllegalArgumentException("the weights sum to " + total);
+    }
+    return total;
+  }
+
+  /**
+   * Checks that the given weight is valid.
+   *
+   * @param w the weight
+   */
+  private static void check(double w) {
+    if (!(w >= 0) || Double.isInfinite(w)) {
+      throw new IllegalArgumentException("illegal weight " + w);
+    }
+  }
+
+  /***************************************************************************
+   *                          UNIFORM SAMPLING
+   ***************************************************************************/
+  /**
+   * Samples k keys uniformly from the given keys in a single pass, without
+   * knowing their amount up front.
+   *
+   * @param <K> the data type of the Keys
+   * @param keys the keys to sample from
+   * @param k the amount of keys to sample
+   * @return k keys in no particular order, or all of them if there are fewer
+   */
+  @SuppressWarnings("unchecked")
+  public static <K> CoreList<K> reservoir(Iterable<? extends K> keys, int k) {
+    K[] into = (K[]) new Object[k];
+    int m = reservoir(keys.iterator(), into, CoreRandom.current());
+    return new CoreList<>(Arrays.copyOf(into, m));
+  }
+
+  /**
+   * Samples into.length keys uniformly from the given keys in a single pass,
+   * without knowing their amount up front and without allocating. Instead of
+   * a random number per key, it draws how many keys to skip before the next
+   * one that enters the sample (Algorithm L), so that the cost grows with
+   * log(n / k) rather than n.
+   *
+   * @param <K> the data type of the Keys
+   * @param keys the keys to sample from
+   * @param into the array to store the sample in
+   * @param random the generator to draw with
+   * @return the amount of keys sampled: into.length, or less if there were
+   *         fewer keys
+   */
+  public static <K> int reservoir(Iterator<? extends K> keys, K[] into,
+      RandomGenerator random) {
+    int k = into.length;
+    int m = 0;
+    while (m < k && keys.hasNext()) {
+      into[m++] = keys.next();
+    }
+    if (m < k || k == 0) {
+      return m;
+    }
+    double w = Math.exp(Math.log(uniform(random)) / k);
+    while (true) {
+      long skip = (long) (Math.log(uniform(random)) / Math.log1p(-w));
+      for (; skip > 0; skip--) {
+        if (!keys.hasNext()) {
+          return k;
+        }
+        keys.next();
+      }
+      if (!keys.hasNext()) {
+        return k;
+      }
+      into[random.nextInt(k)] = keys.next();
+      w *= Math.exp(Math.log(uniform(random)) / k);
+    }
+  }
+
+  /**
+   * Draws a double in (0, 1], which is safe to take the log of.
+   *
+   * @param random the generator to draw with
+   * @return a double in (0, 1]
+   */
+  private static double uniform(RandomGenerator random) {
+    return 1 - random.nextDouble();
+  }
+
+  /**
+   * Samples into.length distinct indices from [0, n) without replacement, in
+   * a uniformly random order. Allocates a scratch table for more than 64
+   * indices; pass one from distinctTable() to avoid that.
+   *
+   * @param n the amount of indices to sample from
+   * @param into the array to store the indices in
+   * @param random the generator to draw with
+   */
+  public static void distinct(int n, int[] into, RandomGenerator random) {
+    distinct(n, into, distinctTable(into.length), random);
+  }
+
+  /**
+   * Samples into.length distinct indices from [0, n) without replacement and
+   * without allocating, in a uniformly random order, in O(k) time and random
+   * draws. It uses Floyd's algorithm, which checks the indices picked so far
+   * by a linear scan for up to 64 indices and in the given table for more.
+   * When more than half of the indices are sampled, it selects each index in
+   * turn with the right probability instead, which takes O(n) = O(k) time.
+   *
+   * @param n the amount of indices to sample from
+   * @param into the array to store the indices in
+   * @param table the scratch table from distinctTable(into.length), empty
+   *        again when this returns
+   * @param random the generator to draw with
+   */
+  public static void distinct(int n, int[] into, int[] table,
+      RandomGenerator random) {
+    int k = into.length;
+    if (k > n) {
+      throw new IllegalArgumentException("cannot sample " + k
+        + " distinct indices from " + n);
+    }
+    if (k <= SCAN_LIMIT) {
+      // Floyd: for j in [n - k, n), take a random t <= j, or j if t is taken
+      int m = 0;
+      for (int j = n - k; j < n; j++) {
+        int t = random.nextInt(j + 1);
+        for (int i = 0; i < m; i++) {
+          if (into[i] == t) {
+            t = j;
+            break;
+          }
+        }
+        into[m++] = t;
+      }
+    } else if (k <= n / 2 && k <= MAX_TABLE_KEYS) {
+      if (table.length < 2 * k) {
+        throw new IllegalArgumentException("a table of " + table.length
+          + " slots is too small for " + k + " indices (see distinctTable)");
+      }
+      // Floyd again, with the picks in the table
+      int shift = Integer.numberOfLeadingZeros(table.length) + 1;
+      int m = 0;
+      for (int j = n - k; j < n; j++) {
+        int t = random.nextInt(j + 1);
+        if (!insert(table, shift, t)) {
+          // j was never picked, since every earlier pick is below it
+          t = j;
+          insert(table, shift, t);
+        }
+        into[m++] = t;
+      }
+      Arrays.fill(table, 0);
+    } else {
+      // selection sampling: take index i with chance (needed) / (left)
+      int m = 0;
+      for (int i = 0; m < k; i++) {
+        if (random.nextInt(n - i) < k - m) {
+          into[m++] = i;
+        }
+      }
+    }
+    // Fisher-Yates, since both leave the indices in a biased order
+    for (int i = k - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int t = into[i];
+      into[i] = into[j];
+      into[j] = t;
+    }
+  }
+
+  /**
+   * Samples into.length distinct indices from [0, n) using the calling
+   * thread's CoreRandom.
+   *
+   * @param n the amount of indices to sample from
+   * @param into the array to store the indices in
+   */
+  public static void distinct(int n, int[] into) {
+    distinct(n, into, CoreRandom.current());
+  }
+
+  /**
+   * Creates the scratch table that distinct() needs to sample k indices in
+   * O(k) time, to be reused between draws of the same size.
+   *
+   * @param k the amount of indices to sample
+   * @return the table (empty if none is needed)
+   */
+  public static int[] distinctTable(int k) {
+    if (k <= SCAN_LIMIT || k > MAX_TABLE_KEYS) {
+      return new int[0];
+    }
+    // a power of two, at most half full
+    return new int[Integer.highestOneBit(2 * k - 1) << 1];
+  }
+
+  /**
+   * Adds the given index to the open addressing table, which holds index + 1
+   * (0 for an empty slot).
+   *
+   * @param table the table, whose length is a power of two
+   * @param shift the shift that turns a hash into a slot of the table
+   * @param t the index
+   * @return false if the table already held the index
+   */
+  private static boolean insert(int[] table, int shift, int t) {
+    int mask = table.length - 1;
+    for (int i = (t * 0x9E3779B9) >>> shift;; i = (i + 1) & mask) {
+      if (table[i] == 0) {
+        table[i] = t + 1;
+        return true;
+      }
+      if (table[i] == t + 1) {
+        return false;
+      }
+    }
+  }
+}
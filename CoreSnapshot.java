@@ -0,0 +1,592 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*******************************************************************************
+ *
+ * CoreSnapshot saves lists in a compact binary format and loads them back,
+ * which is a lot faster than turning every element into a line of text with
+ * Core.writeTo and parsing it again after Core.readFrom.
+ *
+ * A snapshot is a 32 byte header followed by the elements (little endian):
+ *
+ *   magic   int    "KCSN"
+ *   version short  the format version (1)
+ *   type    byte   1 = int, 2 = long, 3 = double, 4 = String
+ *   flags   byte   1 = the elements are GZIP compressed
+ *   count   long   the amount of elements
+ *   (padding up to 32 bytes)
+ *
+ * ints, longs and doubles take 4, 8 and 8 bytes each. A String is its UTF-8
+ * length as an int (-1 for null) followed by its UTF-8 bytes.
+ *
+ * The library offers:
+ *  * write() and read() for CoreLists of Integer, Long, Double or String,
+ *    streaming through NIO channels with a single reusable buffer.
+ *    write() checks every element first and writes a file through a
+ *    temporary one, so a failed write never leaves a partial snapshot.
+ *  * write() for CoreOffHeapLists of ints, longs and doubles.
+ *  * mapInts(), mapLongs() and mapDoubles(), which map an uncompressed
+ *    primitive snapshot (written from either kind of list) straight into a
+ *    CoreOffHeapList, so even a huge snapshot loads in milliseconds. The
+ *    mapping is read-only unless changes should be written through.
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreSnapshot {
+
+  /** "KCSN" */
+  private static final int MAGIC = 0x4B43534E;
+
+  /** The current format version */
+  private static final short VERSION = 1;
+
+  /** The size of the header in bytes */
+  private static final int HEADER = 32;
+
+  /** The element types */
+  private static final byte INT = 1, LONG = 2, DOUBLE = 3, STRING = 4;
+
+  /** The flag marking compressed elements */
+  private static final byte GZIP = 1;
+
+  /** The size of the streaming buffer in bytes */
+  private static final int BUFFER = 1 << 16;
+
+  /***************************************************************************
+   *                              WRITING
+   ***************************************************************************/
+  /**
+   * Writes the given list to the given file, uncompressed.
+   *
+   * @param list a list of Integer, Long, Double or String
+   * @param filename the file to write the snapshot to
+   */
+  public static <K extends Comparable<K>> void write(CoreList<K> list,
+      String filename) {
+    write(list, filename, false);
+  }
+
+  /**
+   * Writes the given list to the given file.
+   *
+   * @param list a list of Integer, Long, Double or String
+   * @param filename the file to write the snapshot to
+   * @param compress whether to GZIP the elements
+   */
+  public static <K extends Comparable<K>> void write(CoreList<K> list,
+      String filename, boolean compress) {
+    replace(filename, ch -> write(list, ch, compress));
+  }
+
+  /**
+   * Writes the given list to the given channel. The channel is not closed.
+   *
+   * @param list a list of Integer, Long, Double or String
+   * @param ch the channel to write the snapshot to
+   * @param compress whether to GZIP the elements
+   */
+  public static <K extends Comparable<K>> void write(CoreList<K> list,
+      WritableByteChannel ch, boolean compress) throws IOException {
+    int n = list.size();
+    // check every element before anything is written
+    byte type = typeOf(list);
+    writeHeader(ch, type, compress, n);
+    Gzip gzip = compress ? new Gzip(ch) : null;
+    WritableByteChannel out = compress ? Channels.newChannel(gzip) : ch;
+    try {
+      ByteBuffer buf = buffer();
+      for (int i = 0; i < n; i++) {
+        K k = list.get(i);
+        if (buf.remaining() < Long.BYTES) {
+          flush(buf, out);
+        }
+        switch (type) {
+          case INT:
+            buf.putInt((Integer) k);
+            break;
+          case LONG:
+            buf.putLong((Long) k);
+            break;
+          case DOUBLE:
+            buf.putDouble((Double) k);
+            break;
+          default:
+            putString(buf, out, (String) k);
+        }
+      }
+      flush(buf, out);
+      if (gzip != null) {
+        gzip.finish();
+      }
+    } finally {
+      if (gzip != null) {
+        gzip.end();
+      }
+    }
+  }
+
+  /**
+   * Writes the given primitive list to the given file.
+   *
+   * @param list a CoreOffHeapList.OfInt, OfLong or OfDouble
+   * @param filename the file to write the snapshot to
+   * @param compress whether to GZIP the elements (compressed snapshots can be
+   *        read but not mapped)
+   */
+  public static void write(CoreOffHeapList list, String filename,
+      boolean compress) {
+    replace(filename, ch -> write(list, ch, compress));
+  }
+
+  /**
+   * Writes the given primitive list to the given channel. The channel is not
+   * closed.
+   *
+   * @param list a CoreOffHeapList.OfInt, OfLong or OfDouble
+   * @param ch the channel to write the snapshot to
+   * @param compress whether to GZIP the elements
+   */
+  public static void write(CoreOffHeapList list, WritableByteChannel ch,
+      boolean compress) throws IOException {
+    byte type;
+    if (list instanceof CoreOffHeapList.OfInt) {
+      type = INT;
+    } else if (list instanceof CoreOffHeapList.OfLong) {
+      type = LONG;
+    } else if (list instanceof CoreOffHeapList.OfDouble) {
+      type = DOUBLE;
+    } else {
+      throw new IllegalArgumentException("only primitive lists are supported");
+    }
+    writeHeader(ch, type, compress, list.size());
+    if (!compress) {
+      list.write(ch);
+      return;
+    }
+    Gzip gzip = new Gzip(ch);
+    try {
+      list.write(Channels.newChannel(gzip));
+      gzip.finish();
+    } finally {
+      gzip.end();
+    }
+  }
+
+  /***************************************************************************
+   *                              READING
+   ***************************************************************************/
+  /**
+   * Reads a snapshot from the given file into a CoreList.
+   *
+   * @param filename the file to read the snapshot from
+   * @return a list of Integer, Long, Double or String (as written)
+   */
+  public static <K extends Comparable<K>> CoreList<K> read(String filename) {
+    try (FileChannel ch = FileChannel.open(Paths.get(filename),
+        StandardOpenOption.READ)) {
+      return read(ch);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Reads a snapshot from the given channel into a CoreList. The channel is
+   * not closed.
+   *
+   * @param ch the channel to read the snapshot from
+   * @return a list of Integer, Long, Double or String (as written)
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public static <K extends Comparable<K>> CoreList<K> read(
+      ReadableByteChannel ch) throws IOException {
+    ByteBuffer header = readHeader(ch);
+    byte type = header.get(6);
+    long count = header.getLong(8);
+    if (count > Integer.MAX_VALUE - 8) {
+      throw new IOException(count + " elements do not fit in a CoreList");
+    }
+    ReadableByteChannel in = body(ch, header);
+    ByteBuffer buf = buffer();
+    buf.flip();
+    Comparable[] arr = new Comparable[(int) count];
+    for (int i = 0; i < arr.length; i++) {
+      switch (type) {
+        case INT:
+          ensure(buf, in, Integer.BYTES);
+          arr[i] = buf.getInt();
+          break;
+        case LONG:
+          ensure(buf, in, Long.BYTES);
+          arr[i] = buf.getLong();
+          break;
+        case DOUBLE:
+          ensure(buf, in, Double.BYTES);
+          arr[i] = buf.getDouble();
+          break;
+        case STRING:
+          arr[i] = getString(buf, in);
+          break;
+        default:
+          throw new IOException("unknown element type " + type);
+      }
+    }
+    return new CoreList<>((K[]) arr);
+  }
+
+  /**
+   * Maps an uncompressed int snapshot into a new, read-only list.
+   *
+   * @param filename the file holding the snapshot
+   * @return the mapped list
+   */
+  public static CoreOffHeapList.OfInt mapInts(String filename) {
+    return mapInts(filename, false);
+  }
+
+  /**
+   * Maps an uncompressed int snapshot into a new list.
+   *
+   * @param filename the file holding the snapshot
+   * @param writeThrough whether changes to the elements are written to the
+   *        file (which must then be writable), instead of being rejected.
+   *        Write-through ends at the first add() (see CoreOffHeapList)
+   * @return the mapped list
+   */
+  public static CoreOffHeapList.OfInt mapInts(String filename,
+      boolean writeThrough) {
+    return map(new CoreOffHeapList.OfInt(), INT, filename, writeThrough);
+  }
+
+  /**
+   * Maps an uncompressed long snapshot into a new, read-only list.
+   *
+   * @param filename the file holding the snapshot
+   * @return the mapped list
+   */
+  public static CoreOffHeapList.OfLong mapLongs(String filename) {
+    return mapLongs(filename, false);
+  }
+
+  /**
+   * Maps an uncompressed long snapshot into a new list.
+   *
+   * @param filename the file holding the snapshot
+   * @param writeThrough whether changes to the elements are written to the
+   *        file (which must then be writable), instead of being rejected.
+   *        Write-through ends at the first add() (see CoreOffHeapList)
+   * @return the mapped list
+   */
+  public static CoreOffHeapList.OfLong mapLongs(String filename,
+      boolean writeThrough) {
+    return map(new CoreOffHeapList.OfLong(), LONG, filename, writeThrough);
+  }
+
+  /**
+   * Maps an uncompressed double snapshot into a new, read-only list.
+   *
+   * @param filename the file holding the snapshot
+   * @return the mapped list
+   */
+  public static CoreOffHeapList.OfDouble mapDoubles(String filename) {
+    return mapDoubles(filename, false);
+  }
+
+  /**
+   * Maps an uncompressed double snapshot into a new list.
+   *
+   * @param filename the file holding the snapshot
+   * @param writeThrough whether changes to the elements are written to the
+   *        file (which must then be writable), instead of being rejected.
+   *        Write-through ends at the first add() (see CoreOffHeapList)
+   * @return the mapped list
+   */
+  public static CoreOffHeapList.OfDouble mapDoubles(String filename,
+      boolean writeThrough) {
+    return map(new CoreOffHeapList.OfDouble(), DOUBLE, filename, writeThrough);
+  }
+
+  /**
+   * Maps the snapshot into the given list, or reads it if it is compressed.
+   *
+   * @param list the empty list to load into
+   * @param type the element type the list requires
+   * @param filename the file holding the snapshot
+   * @param writeThrough whether to map the file for writing
+   * @return list
+   */
+  private static <L extends CoreOffHeapList> L map(L list, byte type,
+      String filename, boolean writeThrough) {
+    try (FileChannel ch = writeThrough
+        ? FileChannel.open(Paths.get(filename), StandardOpenOption.READ,
+          StandardOpenOption.WRITE)
+        : FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      ByteBuffer header = readHeader(ch);
+      if (header.get(6) != type) {
+        throw new IOException(filename + " holds element type "
+          + header.get(6) + ", not " + type);
+      }
+      long count = header.getLong(8);
+      if ((header.get(7) & GZIP) == 0) {
+        // mapping past the end would silently extend a truncated file
+        if (count < 0 || count > (ch.size() - HEADER) / list.width()) {
+          throw new EOFException(filename + " is truncated: it cannot hold "
+            + count + " elements");
+        }
+        list.mapFrom(ch, HEADER, count, writeThrough
+          ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY);
+        return list;
+      }
+      ReadableByteChannel in = body(ch, header);
+      ByteBuffer buf = buffer();
+      buf.flip();
+      ByteBuffer record = ByteBuffer.allocate(list.width())
+        .order(ByteOrder.LITTLE_ENDIAN);
+      for (long i = 0; i < count; i++) {
+        ensure(buf, in, list.width());
+        record.put(0, buf, buf.position(), list.width());
+        buf.position(buf.position() + list.width());
+        list.add(record);
+      }
+      return list;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /***************************************************************************
+   *                              HELPERS
+   ***************************************************************************/
+  /** Writes a snapshot to a channel */
+  private interface Body {
+    void write(FileChannel ch) throws IOException;
+  }
+
+  /**
+   * Writes a snapshot to a temporary file next to the given one, then moves
+   * it over the given file. A write that fails leaves the given file as it
+   * was, rather than holding a partial snapshot.
+   *
+   * @param filename the file to write the snapshot to
+   * @param body writes the snapshot
+   */
+  private static void replace(String filename, Body body) {
+    Path target = Paths.get(filename);
+    Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+    try {
+      try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        body.write(ch);
+      }
+      Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      try {
+        Files.deleteIfExists(tmp);
+      } catch (IOException e) {
+        // only a leftover temporary file
+      }
+    }
+  }
+
+  private static ByteBuffer buffer() {
+    return ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Gets the snapshot type of the given element.
+   *
+   * @param k a non-null element
+   * @return the type code of k
+   */
+  private static byte typeOf(Object k) {
+    if (k instanceof Integer) {
+      return INT;
+    } else if (k instanceof Long) {
+      return LONG;
+    } else if (k instanceof Double) {
+      return DOUBLE;
+    } else if (k instanceof String) {
+      return STRING;
+    }
+    throw new IllegalArgumentException("unsupported element type "
+      + k.getClass().getName() + " (only Integer, Long, Double and String)");
+  }
+
+  /**
+   * Gets the snapshot type of the elements of the given list, checking that
+   * every element has it (and that only Strings are null). A list of nothing
+   * but nulls is written as Strings, an empty list as ints.
+   *
+   * @param list a list of Integer, Long, Double or String
+   * @return the type code of the elements
+   */
+  private static byte typeOf(CoreList<?> list) {
+    byte type = 0;
+    int firstNull = -1;
+    for (int i = 0; i < list.size(); i++) {
+      Object k = list.get(i);
+      if (k == null) {
+        firstNull = firstNull < 0 ? i : firstNull;
+        continue;
+      }
+      byte t = typeOf(k);
+      if (type == 0) {
+        type = t;
+      } else if (t != type) {
+        throw new IllegalArgumentException("element " + i + " is a "
+          + k.getClass().getName() + ", unlike the elements before it");
+      }
+    }
+    if (type == 0) {
+      return list.isEmpty() ? INT : STRING;
+    }
+    if (type != STRING && firstNull >= 0) {
+      throw new IllegalArgumentException("null at index " + firstNull);
+    }
+    return type;
+  }
+
+  private static void writeHeader(WritableByteChannel ch, byte type,
+      boolean compress, long count) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER)
+      .order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC).putShort(VERSION).put(type)
+      .put(compress ? GZIP : 0).putLong(count);
+    header.clear();
+    while (header.hasRemaining()) {
+      ch.write(header);
+    }
+  }
+
+  private static ByteBuffer readHeader(ReadableByteChannel ch)
+      throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER)
+      .order(ByteOrder.LITTLE_ENDIAN);
+    while (header.hasRemaining()) {
+      if (ch.read(header) < 0) {
+        throw new EOFException("incomplete snapshot header");
+      }
+    }
+    if (header.getInt(0) != MAGIC) {
+      throw new IOException("not a snapshot");
+    }
+    if (header.getShort(4) < 1 || header.getShort(4) > VERSION) {
+      throw new IOException("unsupported snapshot version "
+        + header.getShort(4));
+    }
+    return header;
+  }
+
+  /**
+   * A GZIP stream over a channel whose end() frees the native compressor
+   * without closing the channel, which belongs to the caller.
+   */
+  private static class Gzip extends GZIPOutputStream {
+
+    Gzip(WritableByteChannel ch) throws IOException {
+      super(Channels.newOutputStream(ch), BUFFER);
+    }
+
+    /** Frees the compressor, after finish() or on failure */
+    void end() {
+      def.end();
+    }
+  }
+
+  /**
+   * Gets the channel to read the elements from, which unzips them if needed.
+   */
+  private static ReadableByteChannel body(ReadableByteChannel ch,
+      ByteBuffer header) throws IOException {
+    if ((header.get(7) & GZIP) == 0) {
+      return ch;
+    }
+    return Channels.newChannel(
+      new GZIPInputStream(Channels.newInputStream(ch), BUFFER));
+  }
+
+  /** Writes out the contents of buf and clears it */
+  private static void flush(ByteBuffer buf, WritableByteChannel out)
+      throws IOException {
+    buf.flip();
+    while (buf.hasRemaining()) {
+      out.write(buf);
+    }
+    buf.clear();
+  }
+
+  /** Makes sure at least n bytes can be read from buf (in read mode) */
+  private static void ensure(ByteBuffer buf, ReadableByteChannel in, int n)
+      throws IOException {
+    if (buf.remaining() >= n) {
+      return;
+    }
+    buf.compact();
+    while (buf.position() < n) {
+      if (in.read(buf) < 0) {
+        throw new EOFException("snapshot ends before its last element");
+      }
+    }
+    buf.flip();
+  }
+
+  private static void putString(ByteBuffer buf, WritableByteChannel out,
+      String s) throws IOException {
+    if (s == null) {
+      buf.putInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    buf.putInt(bytes.length);
+    if (bytes.length <= buf.remaining()) {
+      buf.put(bytes);
+      return;
+    }
+    flush(buf, out);
+    if (bytes.length <= buf.remaining()) {
+      buf.put(bytes);
+      return;
+    }
+    ByteBuffer large = ByteBuffer.wrap(bytes);
+    while (large.hasRemaining()) {
+      out.write(large);
+    }
+  }
+
+  private static String getString(ByteBuffer buf, ReadableByteChannel in)
+      throws IOException {
+    ensure(buf, in, Integer.BYTES);
+    int length = buf.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    int copied = Math.min(length, buf.remaining());
+    buf.get(bytes, 0, copied);
+    ByteBuffer rest = ByteBuffer.wrap(bytes, copied, length - copied);
+    while (rest.hasRemaining()) {
+      if (in.read(rest) < 0) {
+        throw new EOFException("snapshot ends before its last element");
+      }
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,367 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/*******************************************************************************
+ *
+ * CoreSort ranks primitive values without boxing them: argsort() returns the
+ * indices of the values in sorted order, so that values[into[0]] is the
+ * smallest value (or the largest, in descending order).
+ *
+ * The library offers:
+ *  * argsort() of double[] and long[] values, in ascending or descending
+ *    order.
+ *  * LSD radix sort on the bit patterns of the values for large inputs and
+ *    dual-pivot quicksort below RADIX_THRESHOLD values. Radix passes on which
+ *    every value has the same digit (such as the exponent bits of doubles in
+ *    a narrow range) are skipped.
+ *  * A parallel mode for arrays of millions of values, which radix sorts
+ *    chunks on the common ForkJoinPool and then merges them.
+ *  * Stable results: equal values keep the order of their indices, in both
+ *    orders and in every mode.
+ *
+ * Doubles are ordered as by Double.compare(): -0.0 before 0.0 and NaN after
+ * everything else. A CoreSort keeps its scratch buffers between calls, so
+ * ranking arrays of the same size again does not allocate. It is not thread
+ * safe; use one per thread.
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreSort {
+
+  /** Below this many values, quicksort is faster than radix sort */
+  public static final int RADIX_THRESHOLD = 1 << 10;
+
+  /** Below this many values, the parallel mode sorts sequentially */
+  public static final int PARALLEL_THRESHOLD = 1 << 20;
+
+  /** The bits per radix digit */
+  private static final int BITS = 11;
+
+  /** The amount of radix digits in a 64-bit key */
+  private static final int PASSES = (64 + BITS - 1) / BITS;
+
+  /** Below this many values, quicksort switches to insertion sort */
+  private static final int INSERTION_THRESHOLD = 27;
+
+  /** The sortable keys of the values */
+  private long[] keys = new long[0];
+
+  /** The keys and indices that radix sort and merge move to and from */
+  private long[] keysTmp = new long[0];
+  private int[] indicesTmp = new int[0];
+
+  /** The digit counts of every radix pass */
+  private final int[][] counts = new int[PASSES][1 << BITS];
+
+  /***************************************************************************
+   *                               ARGSORT
+   ***************************************************************************/
+  /**
+   * Stores the indices of the given values in sorted order in into.
+   *
+   * @param values the values to rank
+   * @param into the array to store the indices in, of the same length
+   * @param descending true for descending order, false for ascending
+   * @param parallel true to sort chunks on the common ForkJoinPool
+   * @return into
+   */
+  public int[] argsort(double[] values, int[] into, boolean descending,
+      boolean parallel) {
+    int n = check(values.length, into);
+    for (int i = 0; i < n; i++) {
+      long bits = Double.doubleToLongBits(values[i]);
+      // flip the magnitude of negatives so that the bits compare as longs
+      long key = bits ^ ((bits >> 63) & Long.MAX_VALUE);
+      keys[i] = descending ? ~key : key;
+      into[i] = i;
+    }
+    sort(into, n, parallel);
+    return into;
+  }
+
+  /**
+   * Stores the indices of the given values in sorted order in into.
+   *
+   * @param values the values to rank
+   * @param into the array to store the indices in, of the same length
+   * @param descending true for descending order, false for ascending
+   * @param parallel true to sort chunks on the common ForkJoinPool
+   * @return into
+   */
+  public int[] argsort(long[] values, int[] into, boolean descending,
+      boolean parallel) {
+    int n = check(values.length, into);
+    for (int i = 0; i < n; i++) {
+      keys[i] = descending ? ~values[i] : values[i];
+      into[i] = i;
+    }
+    sort(into, n, parallel);
+    return into;
+  }
+
+  /**
+   * Checks the length of into and makes sure the scratch buffers can hold n
+   * keys.
+   *
+   * @param n the amount of values
+   * @param into the array to store the indices in
+   * @return n
+   */
+  private int check(int n, int[] into) {
+    if (into.length != n) {
+      throw new IllegalArgumentException("cannot rank " + n
+        + " values into an array of length " + into.length);
+    }
+    if (keys.length < n) {
+      keys = new long[n];
+      keysTmp = new long[n];
+      indicesTmp = new int[n];
+    }
+    return n;
+  }
+
+  /**
+   * Sorts keys[0..n) along with their indices.
+   *
+   * @param indices the indices of the keys
+   * @param n the amount of keys
+   * @param parallel true to sort chunks on the common ForkJoinPool
+   */
+  private void sort(int[] indices, int n, boolean parallel) {
+    if (!parallel || n < PARALLEL_THRESHOLD) {
+      sort(keys, indices, keysTmp, indicesTmp, 0, n, counts);
+      return;
+    }
+    // a power of two chunks, so that the merges pair up evenly
+    int chunks = Integer.highestOneBit(
+      Math.max(2, Runtime.getRuntime().availableProcessors()));
+    int size = (n + chunks - 1) / chunks;
+    long[] k = keys;
+    long[] kt = keysTmp;
+    int[] it = indicesTmp;
+    IntStream.range(0, chunks).parallel().forEach(c -> sort(k, indices, kt, it,
+      Math.min(n, c * size), Math.min(n, (c + 1) * size),
+      new int[PASSES][1 << BITS]));
+    // merge pairs of runs until one is left, moving back and forth
+    long[] srcKeys = k;
+    int[] srcIndices = indices;
+    long[] dstKeys = kt;
+    int[] dstIndices = it;
+    for (int width = size; width < n; width *= 2) {
+      long[] sk = srcKeys;
+      int[] si = srcIndices;
+      long[] dk = dstKeys;
+      int[] di = dstIndices;
+      int w = width;
+      IntStream.range(0, (n + 2 * w - 1) / (2 * w)).parallel().forEach(p -> {
+        int lo = p * 2 * w;
+        merge(sk, si, dk, di, lo, Math.min(n, lo + w), Math.min(n, lo + 2 * w));
+      });
+      srcKeys = dk;
+      srcIndices = di;
+      dstKeys = sk;
+      dstIndices = si;
+    }
+    if (srcIndices != indices) {
+      System.arraycopy(srcIndices, 0, indices, 0, n);
+    }
+  }
+
+  /**
+   * Sorts k[lo..hi) along with ix[lo..hi), by key and then by index.
+   *
+   * @param k the keys
+   * @param ix the indices of the keys
+   * @param kt scratch keys
+   * @param it scratch indices
+   * @param lo the first position to sort
+   * @param hi the position after the last one to sort
+   * @param counts the digit counts of every pass, all zero
+   */
+  private static void sort(long[] k, int[] ix, long[] kt, int[] it, int lo,
+      int hi, int[][] counts) {
+    if (hi - lo < RADIX_THRESHOLD) {
+      quicksort(k, ix, lo, hi - 1);
+    } else {
+      radixsort(k, ix, kt, it, lo, hi, counts);
+    }
+  }
+
+  /***************************************************************************
+   *                             RADIX SORT
+   ***************************************************************************/
+  /**
+   * LSD radix sort of k[lo..hi) along with ix[lo..hi). Being stable, it
+   * keeps equal keys in the order of their (ascending) indices.
+   *
+   * @param k the keys
+   * @param ix the indices of the keys
+   * @param kt scratch keys
+   * @param it scratch indices
+   * @param lo the first position to sort
+   * @param hi the position after the last one to sort
+   * @param counts the digit counts of every pass, all zero (and left so)
+   */
+  private static void radixsort(long[] k, int[] ix, long[] kt, int[] it,
+      int lo, int hi, int[][] counts) {
+    int mask = (1 << BITS) - 1;
+    // count every digit of every key in one pass over the keys
+    for (int i = lo; i < hi; i++) {
+      long key = k[i] ^ Long.MIN_VALUE;
+      for (int p = 0; p < PASSES; p++) {
+        counts[p][(int) (key >>> (p * BITS)) & mask]++;
+      }
+    }
+    long[] srcKeys = k;
+    int[] srcIndices = ix;
+    long[] dstKeys = kt;
+    int[] dstIndices = it;
+    for (int p = 0; p < PASSES; p++) {
+      int[] count = counts[p];
+      int shift = p * BITS;
+      if (count[(int) ((srcKeys[lo] ^ Long.MIN_VALUE) >>> shift) & mask]
+          == hi - lo) {
+        // every key has this digit, the pass would not move anything
+        Arrays.fill(count, 0);
+        continue;
+      }
+      // turn the counts into the first position of each digit
+      int position = lo;
+      for (int d = 0; d <= mask; d++) {
+        int c = count[d];
+        count[d] = position;
+        position += c;
+      }
+      for (int i = lo; i < hi; i++) {
+        long key = srcKeys[i];
+        int pos = count[(int) ((key ^ Long.MIN_VALUE) >>> shift) & mask]++;
+        dstKeys[pos] = key;
+        dstIndices[pos] = srcIndices[i];
+      }
+      Arrays.fill(count, 0);
+      long[] tk = srcKeys;
+      srcKeys = dstKeys;
+      dstKeys = tk;
+      int[] ti = srcIndices;
+      srcIndices = dstIndices;
+      dstIndices = ti;
+    }
+    if (srcKeys != k) {
+      System.arraycopy(srcKeys, lo, k, lo, hi - lo);
+      System.arraycopy(srcIndices, lo, ix, lo, hi - lo);
+    }
+  }
+
+  /**
+   * Merges the sorted runs [lo..mid) and [mid..hi) of the source into the
+   * destination.
+   *
+   * @param sk the source keys
+   * @param si the source indices
+   * @param dk the destination keys
+   * @param di the destination indices
+   * @param lo the first position of the left run
+   * @param mid the first position of the right run
+   * @param hi the position after the right run
+   */
+  private static void merge(long[] sk, int[] si, long[] dk, int[] di, int lo,
+      int mid, int hi) {
+    int i = lo;
+    int j = mid;
+    for (int o = lo; o < hi; o++) {
+      if (j >= hi || (i < mid && !less(sk, si, j, i))) {
+        dk[o] = sk[i];
+        di[o] = si[i++];
+      } else {
+        dk[o] = sk[j];
+        di[o] = si[j++];
+      }
+    }
+  }
+
+  /***************************************************************************
+   *                             QUICKSORT
+   ***************************************************************************/
+  /**
+   * Dual-pivot quicksort of k[left..right] along with ix[left..right], by
+   * key and then by index. As every index is distinct, no two entries are
+   * equal.
+   *
+   * @param k the keys
+   * @param ix the indices of the keys
+   * @param left the first position to sort
+   * @param right the last position to sort
+   */
+  private static void quicksort(long[] k, int[] ix, int left, int right) {
+    if (right - left < INSERTION_THRESHOLD) {
+      for (int i = left + 1; i <= right; i++) {
+        long key = k[i];
+        int index = ix[i];
+        int j = i - 1;
+        for (; j >= left && (k[j] > key || (k[j] == key && ix[j] > index));
+            j--) {
+          k[j + 1] = k[j];
+          ix[j + 1] = ix[j];
+        }
+        k[j + 1] = key;
+        ix[j + 1] = index;
+      }
+      return;
+    }
+    // the pivots are the entries at a third and two thirds
+    int third = (right - left) / 3;
+    swap(k, ix, left, left + third);
+    swap(k, ix, right, right - third);
+    if (less(k, ix, right, left)) {
+      swap(k, ix, left, right);
+    }
+    long p = k[left];
+    int pi = ix[left];
+    long q = k[right];
+    int qi = ix[right];
+    // k[left+1..lt) < p, p < k[lt..i) < q and k(gt..right-1] > q
+    int lt = left + 1;
+    int gt = right - 1;
+    int i = lt;
+    while (i <= gt) {
+      if (k[i] < p || (k[i] == p && ix[i] < pi)) {
+        swap(k, ix, i++, lt++);
+      } else if (k[i] > q || (k[i] == q && ix[i] > qi)) {
+        swap(k, ix, i, gt--);
+      } else {
+        i++;
+      }
+    }
+    swap(k, ix, left, --lt);
+    swap(k, ix, right, ++gt);
+    quicksort(k, ix, left, lt - 1);
+    quicksort(k, ix, lt + 1, gt - 1);
+    quicksort(k, ix, gt + 1, right);
+  }
+
+  /**
+   * Checks whether the entry at i comes before the entry at j.
+   *
+   * @return true if k[i] &lt; k[j], or they are equal and ix[i] &lt; ix[j]
+   */
+  private static boolean less(long[] k, int[] ix, int i, int j) {
+    return k[i] < k[j] || (k[i] == k[j] && ix[i] < ix[j]);
+  }
+
+  /**
+   * Swaps the entries at i and j.
+   *
+   * @param k the keys
+   * @param ix the indices of the keys
+   * @param i a position
+   * @param j another position
+   */
+  private static void swap(long[] k, int[] ix, int i, int j) {
+    long t = k[i];
+    k[i] = k[j];
+    k[j] = t;
+    int ti = ix[i];
+    ix[i] = ix[j];
+    ix[j] = ti;
+  }
+}
@@ -0,0 +1,954 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*******************************************************************************
+ *
+ * CoreTable loads a delimited (CSV, TSV, ...) file into typed primitive
+ * columns, parsing straight from the bytes of the file. Where Core.readFrom
+ * and String.split create a String per line and per field, CoreTable fills an
+ * int[], long[] or double[] per numeric column and dictionary-encodes text
+ * columns, creating one String per distinct value:
+ *
+ *   CoreTable t = CoreTable.read("sales.csv", ',');
+ *   double[] price = t.doubles("price");
+ *   int[] city = t.codes("city");        // city[i] indexes dictionary("city")
+ *
+ * The library offers:
+ *  * read() of a whole file, split into chunks at line boundaries that are
+ *    parsed in parallel on the common ForkJoinPool.
+ *  * stream() of a file of any size in chunks of a fixed amount of bytes,
+ *    handing each chunk to a consumer as a CoreTable of its own. The text
+ *    columns of all chunks share one dictionary, so codes agree between them.
+ *  * A schema (one Type per column), or type inference from the first rows:
+ *    a column is INT if every sampled value fits an int, else LONG if every
+ *    value is an integer, else DOUBLE if every value is a number, else STRING.
+ *  * Fields may be quoted ("a, b" and "say ""hi""" as in RFC 4180), but a
+ *    quoted field may not span lines.
+ *
+ * The first line holds the column names, unless header is false (the
+ * columns are then named c0, c1, ...). Empty fields are read as 0 in INT and
+ * LONG columns, NaN in DOUBLE columns and "" in STRING columns; missing
+ * fields at the end of a line are empty and extra fields are ignored. Text is
+ * decoded with the default charset, like Core.readFrom() does.
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class CoreTable {
+
+  /** The types of columns */
+  public enum Type {
+    INT, LONG, DOUBLE, STRING
+  }
+
+  /** The amount of bytes parsed by one task of read() */
+  private static final int CHUNK = 8 << 20;
+
+  /** The default amount of bytes per chunk of stream() */
+  private static final int STREAM_CHUNK = 64 << 20;
+
+  /** The amount of rows sampled to infer the types of the columns */
+  private static final int SAMPLE_ROWS = 1000;
+
+  /** The charset text is decoded with */
+  private static final Charset CHARSET = Charset.defaultCharset();
+
+  /** The names of the columns */
+  private final String[] names;
+
+  /** The types of the columns */
+  private final Type[] types;
+
+  /** The columns: int[], long[], double[] or int[] dictionary codes */
+  private final Object[] columns;
+
+  /** The dictionaries of the STRING columns (null for the others) */
+  private final Dictionary[] dictionaries;
+
+  /** The amount of rows */
+  private final int rows;
+
+  private CoreTable(String[] names, Type[] types, Object[] columns,
+      Dictionary[] dictionaries, int rows) {
+    this.names = names;
+    this.types = types;
+    this.columns = columns;
+    this.dictionaries = dictionaries;
+    this.rows = rows;
+  }
+
+  /***************************************************************************
+   *                              COLUMNS
+   ***************************************************************************/
+  /**
+   * Retrieves the amount of rows.
+   *
+   * @return the amount of rows
+   */
+  public int rows() {
+    return rows;
+  }
+
+  /**
+   * Retrieves the names of the columns.
+   *
+   * @return the names of the columns, in the order of the file
+   */
+  public String[] names() {
+    return names.clone();
+  }
+
+  /**
+   * Retrieves the type of the given column.
+   *
+   * @param name the name of the column
+   * @return the type of the column
+   */
+  public Type type(String name) {
+    return types[index(name)];
+  }
+
+  /**
+   * Retrieves the given INT column.
+   *
+   * @param name the name of the column
+   * @return the values of the column (not a copy)
+   */
+  public int[] ints(String name) {
+    return (int[]) column(name, Type.INT);
+  }
+
+  /**
+   * Retrieves the given LONG column.
+   *
+   * @param name the name of the column
+   * @return the values of the column (not a copy)
+   */
+  public long[] longs(String name) {
+    return (long[]) column(name, Type.LONG);
+  }
+
+  /**
+   * Retrieves the given DOUBLE column.
+   *
+   * @param name the name of the column
+   * @return the values of the column (not a copy)
+   */
+  public double[] doubles(String name) {
+    return (double[]) column(name, Type.DOUBLE);
+  }
+
+  /**
+   * Retrieves the dictionary codes of the given STRING column: the value of
+   * row i is dictionary(name)[codes(name)[i]].
+   *
+   * @param name the name of the column
+   * @return the codes of the column (not a copy)
+   */
+  public int[] codes(String name) {
+    return (int[]) column(name, Type.STRING);
+  }
+
+  /**
+   * Retrieves the distinct values of the given STRING column, by code.
+   *
+   * @param name the name of the column
+   * @return the distinct values of the column, in order of appearance
+   */
+  public String[] dictionary(String name) {
+    column(name, Type.STRING);
+    return dictionaries[index(name)].values();
+  }
+
+  /**
+   * Retrieves the value of the given STRING column at the given row.
+   *
+   * @param name the name of the column
+   * @param row the row
+   * @return the value
+   */
+  public String string(String name, int row) {
+    int[] codes = codes(name);
+    if (row < 0 || rows <= row) {
+      throw new IndexOutOfBoundsException(row + " for size " + rows);
+    }
+    return dictionaries[index(name)].value(codes[row]);
+  }
+
+  /**
+   * Gets the index of the column with the given name.
+   *
+   * @param name the name of the column
+   * @return the index of the column
+   */
+  private int index(String name) {
+    for (int c = 0; c < names.length; c++) {
+      if (names[c].equals(name)) {
+        return c;
+      }
+    }
+    throw new IllegalArgumentException("no column named '" + name + "'");
+  }
+
+  /**
+   * Gets the column with the given name, which must have the given type.
+   *
+   * @param name the name of the column
+   * @param type the type the column must have
+   * @return the column
+   */
+  private Object column(String name, Type type) {
+    int c = index(name);
+    if (types[c] != type) {
+      throw new IllegalArgumentException("column '" + name + "' is "
+        + types[c] + ", not " + type);
+    }
+    return columns[c];
+  }
+
+  /***************************************************************************
+   *                              LOADING
+   ***************************************************************************/
+  /**
+   * Loads the given file with a header line, inferring the types of the
+   * columns.
+   *
+   * @param filename the file to load
+   * @param separator the byte between fields, such as ',' or '\t'
+   * @return the table
+   */
+  public static CoreTable read(String filename, char separator) {
+    return read(filename, separator, true, (Type[]) null);
+  }
+
+  /**
+   * Loads the given file with a header line and the given column types.
+   *
+   * @param filename the file to load
+   * @param separator the byte between fields, such as ',' or '\t'
+   * @param schema the types of the columns, in order
+   * @return the table
+   */
+  public static CoreTable read(String filename, char separator,
+      Type... schema) {
+    return read(filename, separator, true, schema);
+  }
+
+  /**
+   * Loads the given file, parsing chunks of it in parallel.
+   *
+   * @param filename the file to load
+   * @param separator the byte between fields, such as ',' or '\t'
+   * @param header true if the first line holds the column names
+   * @param schema the types of the columns, or null to infer them
+   * @return the table
+   */
+  public static CoreTable read(String filename, char separator,
+      boolean header, Type[] schema) {
+    byte sep = separator(separator);
+    try (FileChannel ch = FileChannel.open(Paths.get(filename),
+        StandardOpenOption.READ)) {
+      long size = ch.size();
+      // the header (or first) line tells the amount of columns
+      long firstEnd = lineEnd(ch, 0);
+      byte[] first = read(ch, 0, firstEnd);
+      String[] names = names(first, sep, header);
+      long start = header ? firstEnd : 0;
+      Type[] types = schema != null ? check(schema, names)
+        : infer(sample(ch, start), sep, names);
+      // split at the first line end after every CHUNK bytes
+      ArrayList<Long> bounds = new ArrayList<>();
+      bounds.add(start);
+      while (bounds.get(bounds.size() - 1) < size) {
+        long last = bounds.get(bounds.size() - 1);
+        bounds.add(lineEnd(ch, Math.min(size, last + CHUNK)));
+      }
+      List<CoreTable> chunks = IntStream.range(0, bounds.size() - 1)
+        .parallel()
+        .mapToObj(i -> {
+          try {
+            byte[] b = read(ch, bounds.get(i), bounds.get(i + 1));
+            return parse(b, 0, b.length, sep, names, types,
+              dictionaries(types));
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        })
+        .collect(Collectors.toList());
+      return concat(chunks, names, types);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Streams the given file with a header line in chunks of 64 MB, inferring
+   * the types of the columns from the first chunk.
+   *
+   * @param filename the file to load
+   * @param separator the byte between fields, such as ',' or '\t'
+   * @param consumer receives the chunks in order
+   */
+  public static void stream(String filename, char separator,
+      Consumer<CoreTable> consumer) {
+    stream(filename, separator, true, null, STREAM_CHUNK, consumer);
+  }
+
+  /**
+   * Streams the given file in chunks of about chunkBytes bytes (ending at
+   * line boundaries), so that files larger than the heap can be processed.
+   * Every chunk is handed to the consumer as a CoreTable before the next one
+   * is read, and only one chunk is held at a time. The STRING columns of all
+   * chunks share their dictionaries.
+   *
+   * @param filename the file to load
+   * @param separator the byte between fields, such as ',' or '\t'
+   * @param header true if the first line holds the column names
+   * @param schema the types of the columns, or null to infer them from the
+   *        first chunk
+   * @param chunkBytes the amount of bytes to read per chunk
+   * @param consumer receives the chunks in order
+   */
+  public static void stream(String filename, char separator, boolean header,
+      Type[] schema, int chunkBytes, Consumer<CoreTable> consumer) {
+    byte sep = separator(separator);
+    try (FileChannel ch = FileChannel.open(Paths.get(filename),
+        StandardOpenOption.READ)) {
+      long firstEnd = lineEnd(ch, 0);
+      String[] names = names(read(ch, 0, firstEnd), sep, header);
+      Type[] types = schema == null ? null : check(schema, names);
+      Dictionary[] dictionaries = null;
+      byte[] b = new byte[Math.max(chunkBytes, 1024)];
+      int carry = 0;
+      long position = header ? firstEnd : 0;
+      boolean eof = false;
+      while (!eof || carry > 0) {
+        // fill what the carried over partial line left free
+        ByteBuffer into = ByteBuffer.wrap(b, carry, b.length - carry);
+        while (into.hasRemaining() && !eof) {
+          int n = ch.read(into, position);
+          if (n < 0) {
+            eof = true;
+          } else {
+            position += n;
+          }
+        }
+        int filled = into.position();
+        int end = filled;
+        if (!eof) {
+          while (end > 0 && b[end - 1] != '\n') {
+            end--;
+          }
+          if (end == 0) {
+            // a line longer than the buffer
+            b = Arrays.copyOf(b, 2 * b.length);
+            carry = filled;
+            continue;
+          }
+        }
+        if (end > 0) {
+          if (types == null) {
+            types = infer(b, 0, end, sep, names);
+          }
+          if (dictionaries == null) {
+            dictionaries = dictionaries(types);
+          }
+          CoreTable chunk = parse(b, 0, end, sep, names, types, dictionaries);
+          // the end of the file may leave nothing but blank lines
+          if (chunk.rows > 0) {
+            consumer.accept(chunk);
+          }
+        }
+        System.arraycopy(b, end, b, 0, filled - end);
+        carry = filled - end;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Checks the given separator.
+   *
+   * @param separator the separator
+   * @return the separator as a byte
+   */
+  private static byte separator(char separator) {
+    if (separator >= 128 || separator == '"' || separator == '\n'
+        || separator == '\r') {
+      throw new IllegalArgumentException("illegal separator '" + separator
+        + "'");
+    }
+    return (byte) separator;
+  }
+
+  /**
+   * Gets the names of the columns from the first line.
+   *
+   * @param first the first line
+   * @param sep the separator
+   * @param header true if the first line holds the names
+   * @return the names of the columns
+   */
+  private static String[] names(byte[] first, byte sep, boolean header) {
+    Dictionary d = new Dictionary();
+    ArrayList<String> names = new ArrayList<>();
+    Field f = new Field();
+    int p = 0;
+    int end = first.length;
+    while (end > 0 && (first[end - 1] == '\n' || first[end - 1] == '\r')) {
+      end--;
+    }
+    do {
+      p = f.next(first, p, end, sep);
+      names.add(header ? d.value(f.code(d)) : "c" + names.size());
+    } while (!f.eol);
+    return names.toArray(new String[0]);
+  }
+
+  /**
+   * Checks that the schema has a type for every column.
+   *
+   * @param schema the types of the columns
+   * @param names the names of the columns
+   * @return the schema
+   */
+  private static Type[] check(Type[] schema, String[] names) {
+    if (schema.length != names.length) {
+      throw new IllegalArgumentException("the schema has " + schema.length
+        + " types for " + names.length + " columns");
+    }
+    return schema.clone();
+  }
+
+  /**
+   * Creates the dictionaries of the STRING columns.
+   *
+   * @param types the types of the columns
+   * @return a dictionary per STRING column, null for the others
+   */
+  private static Dictionary[] dictionaries(Type[] types) {
+    Dictionary[] dictionaries = new Dictionary[types.length];
+    for (int c = 0; c < types.length; c++) {
+      if (types[c] == Type.STRING) {
+        dictionaries[c] = new Dictionary();
+      }
+    }
+    return dictionaries;
+  }
+
+  /**
+   * Infers the types of the columns from the first rows of the given bytes.
+   *
+   * @param b the bytes of whole lines
+   * @param sep the separator
+   * @param names the names of the columns
+   * @return the types of the columns
+   */
+  private static Type[] infer(byte[] b, byte sep, String[] names) {
+    return infer(b, 0, b.length, sep, names);
+  }
+
+  /**
+   * Infers the types of the columns from the first rows of b[from..to): the
+   * narrowest type that every distinct value in the column fits.
+   *
+   * @param b the bytes
+   * @param from the index of the first byte of a line
+   * @param to the index after the last byte of a line
+   * @param sep the separator
+   * @param names the names of the columns
+   * @return the types of the columns
+   */
+  private static Type[] infer(byte[] b, int from, int to, byte sep,
+      String[] names) {
+    // cut the sample after SAMPLE_ROWS lines
+    int end = from;
+    for (int lines = 0; end < to && lines < SAMPLE_ROWS; end++) {
+      if (b[end] == '\n') {
+        lines++;
+      }
+    }
+    Type[] strings = new Type[names.length];
+    Arrays.fill(strings, Type.STRING);
+    CoreTable sample = parse(b, from, end, sep, names, strings,
+      dictionaries(strings));
+    Type[] types = new Type[names.length];
+    for (int c = 0; c < names.length; c++) {
+      Type type = null;
+      for (String v : sample.dictionaries[c].values()) {
+        if (!v.isEmpty()) {
+          Type t = typeOf(v.getBytes(CHARSET));
+          type = type == null || t.compareTo(type) > 0 ? t : type;
+        }
+      }
+      types[c] = type == null ? Type.STRING : type;
+    }
+    return types;
+  }
+
+  /**
+   * Gets the narrowest type that the given value fits.
+   *
+   * @param v the bytes of the value
+   * @return INT, LONG, DOUBLE or STRING
+   */
+  private static Type typeOf(byte[] v) {
+    try {
+      long x = CoreReader.parseLong(v, 0, v.length);
+      return (int) x == x ? Type.INT : Type.LONG;
+    } catch (NumberFormatException e) {
+      // not an integer
+    }
+    try {
+      CoreReader.parseDouble(v, 0, v.length);
+      return Type.DOUBLE;
+    } catch (NumberFormatException e) {
+      return Type.STRING;
+    }
+  }
+
+  /***************************************************************************
+   *                              PARSING
+   ***************************************************************************/
+  /**
+   * Parses the lines in b[from..to) into a table.
+   *
+   * @param b the bytes
+   * @param from the index of the first byte of a line
+   * @param to the index after the last byte of a line
+   * @param sep the separator
+   * @param names the names of the columns
+   * @param types the types of the columns
+   * @param dictionaries the dictionaries of the STRING columns
+   * @return the table of the lines
+   */
+  private static CoreTable parse(byte[] b, int from, int to, byte sep,
+      String[] names, Type[] types, Dictionary[] dictionaries) {
+    int cols = types.length;
+    // every row ends with a '\n', except maybe the last
+    int capacity = 1;
+    for (int i = from; i < to; i++) {
+      if (b[i] == '\n') {
+        capacity++;
+      }
+    }
+    Object[] columns = new Object[cols];
+    for (int c = 0; c < cols; c++) {
+      columns[c] = types[c] == Type.LONG ? new long[capacity]
+        : types[c] == Type.DOUBLE ? new double[capacity] : new int[capacity];
+    }
+    Field f = new Field();
+    int row = 0;
+    int p = from;
+    while (p < to) {
+      // skip blank lines
+      if (b[p] == '\n' || (b[p] == '\r' && p + 1 < to && b[p + 1] == '\n')) {
+        p += b[p] == '\n' ? 1 : 2;
+        continue;
+      }
+      f.eol = false;
+      for (int c = 0; c < cols; c++) {
+        p = f.next(b, p, to, sep);
+        try {
+          switch (types[c]) {
+            case INT:
+              ((int[]) columns[c])[row] = f.start == f.end ? 0
+                : CoreReader.parseInt(b, f.start, f.end);
+              break;
+            case LONG:
+              ((long[]) columns[c])[row] = f.start == f.end ? 0
+                : CoreReader.parseLong(b, f.start, f.end);
+              break;
+            case DOUBLE:
+              ((double[]) columns[c])[row] = f.start == f.end ? Double.NaN
+                : CoreReader.parseDouble(b, f.start, f.end);
+              break;
+            default:
+              ((int[]) columns[c])[row] = f.code(dictionaries[c]);
+          }
+        } catch (NumberFormatException e) {
+          throw new NumberFormatException("column '" + names[c] + "' is "
+            + types[c] + " but holds \""
+            + new String(f.bytes, f.start, f.end - f.start, CHARSET)
+            + "\" (pass a schema if the first rows misled type inference)");
+        }
+      }
+      // skip extra fields
+      while (p < to && b[p] != '\n') {
+        p++;
+      }
+      p++;
+      row++;
+    }
+    for (int c = 0; c < cols; c++) {
+      columns[c] = types[c] == Type.LONG
+        ? Arrays.copyOf((long[]) columns[c], row)
+        : types[c] == Type.DOUBLE ? Arrays.copyOf((double[]) columns[c], row)
+        : Arrays.copyOf((int[]) columns[c], row);
+    }
+    return new CoreTable(names, types, columns, dictionaries, row);
+  }
+
+  /**
+   * Joins the tables of the chunks of a file, merging the dictionaries of
+   * their STRING columns.
+   *
+   * @param chunks the tables of the chunks, in order
+   * @param names the names of the columns
+   * @param types the types of the columns
+   * @return the table of the whole file
+   */
+  private static CoreTable concat(List<CoreTable> chunks, String[] names,
+      Type[] types) {
+    int rows = 0;
+    for (CoreTable t : chunks) {
+      rows += t.rows;
+    }
+    int cols = types.length;
+    Object[] columns = new Object[cols];
+    Dictionary[] dictionaries = dictionaries(types);
+    for (int c = 0; c < cols; c++) {
+      Object column = types[c] == Type.LONG ? new long[rows]
+        : types[c] == Type.DOUBLE ? new double[rows] : new int[rows];
+      int at = 0;
+      for (CoreTable t : chunks) {
+        System.arraycopy(t.columns[c], 0, column, at, t.rows);
+        if (types[c] == Type.STRING) {
+          // recode from the chunk's dictionary to the merged one
+          Dictionary d = t.dictionaries[c];
+          int[] recode = new int[d.size];
+          for (int i = 0; i < d.size; i++) {
+            recode[i] = dictionaries[c].code(d, i);
+          }
+          int[] codes = (int[]) column;
+          for (int r = at; r < at + t.rows; r++) {
+            codes[r] = recode[codes[r]];
+          }
+        }
+        at += t.rows;
+      }
+      columns[c] = column;
+    }
+    return new CoreTable(names, types, columns, dictionaries, rows);
+  }
+
+  /**
+   * Finds the end of the line that the given position is in.
+   *
+   * @param ch the file
+   * @param position a position in the file
+   * @return the position after the next '\n' at or after position, or the
+   *         size of the file
+   */
+  private static long lineEnd(FileChannel ch, long position)
+      throws IOException {
+    ByteBuffer window = ByteBuffer.allocate(1 << 16);
+    while (true) {
+      window.clear();
+      int n = ch.read(window, position);
+      if (n < 0) {
+        return ch.size();
+      }
+      for (int i = 0; i < n; i++) {
+        if (window.get(i) == '\n') {
+          return position + i + 1;
+        }
+      }
+      position += n;
+    }
+  }
+
+  /**
+   * Reads the first SAMPLE_ROWS lines from the given position to infer the
+   * types of the columns from, or fewer if they take more than CHUNK bytes.
+   *
+   * @param ch the file
+   * @param from the position of the first line
+   * @return the bytes of the lines
+   */
+  private static byte[] sample(FileChannel ch, long from) throws IOException {
+    ByteBuffer window = ByteBuffer.allocate(1 << 16);
+    long position = from;
+    int lines = 0;
+    while (position - from < CHUNK) {
+      window.clear();
+      int n = ch.read(window, position);
+      if (n < 0) {
+        break;
+      }
+      for (int i = 0; i < n; i++) {
+        if (window.get(i) == '\n' && ++lines == SAMPLE_ROWS) {
+          return read(ch, from, position + i + 1);
+        }
+      }
+      position += n;
+    }
+    return read(ch, from, lineEnd(ch, position));
+  }
+
+  /**
+   * Reads the given range of the file.
+   *
+   * @param ch the file
+   * @param from the position of the first byte
+   * @param to the position after the last byte
+   * @return the bytes
+   */
+  private static byte[] read(FileChannel ch, long from, long to)
+      throws IOException {
+    byte[] b = new byte[Math.toIntExact(to - from)];
+    ByteBuffer into = ByteBuffer.wrap(b);
+    while (into.hasRemaining()) {
+      if (ch.read(into, from + into.position()) < 0) {
+        throw new IOException("the file ended early");
+      }
+    }
+    return b;
+  }
+
+  /**
+   * The bounds of the field being parsed. Quoted fields are unquoted into a
+   * scratch buffer.
+   */
+  private static class Field {
+
+    /** The bytes of the field, b[start..end) or (if quoted) the scratch */
+    private int start, end;
+
+    /** The bytes of the field that were parsed, or the scratch */
+    private byte[] bytes;
+
+    /** The unquoted bytes of a quoted field that held "" */
+    private byte[] scratch = new byte[64];
+
+    /** Whether the line ended at the field (the next ones are missing) */
+    private boolean eol;
+
+    /**
+     * Finds the next field on the line, or an empty one if the line ended.
+     *
+     * @param b the bytes
+     * @param p the position of the field
+     * @param to the index after the last byte
+     * @param sep the separator
+     * @return the position of the field after it
+     */
+    private int next(byte[] b, int p, int to, byte sep) {
+      bytes = b;
+      if (eol) {
+        start = p;
+        end = p;
+        return p;
+      }
+      if (p < to && b[p] == '"') {
+        p = quoted(b, p + 1, to);
+        // skip anything between the closing quote and the separator
+        while (p < to && b[p] != sep && b[p] != '\n') {
+          p++;
+        }
+      } else {
+        start = p;
+        while (p < to && b[p] != sep && b[p] != '\n') {
+          p++;
+        }
+        end = p > start && b[p - 1] == '\r' && (p == to || b[p] == '\n')
+          ? p - 1 : p;
+      }
+      if (p < to && b[p] == sep) {
+        return p + 1;
+      }
+      eol = true;
+      return p;
+    }
+
+    /**
+     * Reads a quoted field, unquoting "" into scratch if needed.
+     *
+     * @param b the bytes
+     * @param p the position after the opening quote
+     * @param to the index after the last byte
+     * @return the position after the closing quote
+     */
+    private int quoted(byte[] b, int p, int to) {
+      start = p;
+      while (p < to && (b[p] != '"' || (p + 1 < to && b[p + 1] == '"'))) {
+        if (b[p] == '"') {
+          // an escaped quote: unquote the whole field into scratch
+          return unquote(b, start, to);
+        }
+        p++;
+      }
+      end = p;
+      return Math.min(p + 1, to);
+    }
+
+    /**
+     * Unquotes a quoted field that holds "" into scratch.
+     *
+     * @param b the bytes
+     * @param p the position after the opening quote
+     * @param to the index after the last byte
+     * @return the position after the closing quote
+     */
+    private int unquote(byte[] b, int p, int to) {
+      int n = 0;
+      for (; p < to; p++) {
+        if (b[p] == '"') {
+          if (p + 1 < to && b[p + 1] == '"') {
+            p++;
+          } else {
+            break;
+          }
+        }
+        if (n == scratch.length) {
+          scratch = Arrays.copyOf(scratch, 2 * n);
+        }
+        scratch[n++] = b[p];
+      }
+      bytes = scratch;
+      start = 0;
+      end = n;
+      return Math.min(p + 1, to);
+    }
+
+    /**
+     * Gets the code of the field in the given dictionary.
+     *
+     * @param d the dictionary
+     * @return the code of the field
+     */
+    private int code(Dictionary d) {
+      return d.code(bytes, start, end);
+    }
+  }
+
+  /**
+   * A dictionary of the distinct values of a STRING column, which looks up
+   * the bytes of a field without creating a String for it.
+   */
+  private static class Dictionary {
+
+    /** The values by code */
+    private String[] values = new String[16];
+
+    /** The bytes of the values by code */
+    private byte[][] bytes = new byte[16][];
+
+    /** The hashes of the values by code */
+    private int[] hashes = new int[16];
+
+    /** The amount of values */
+    private int size;
+
+    /** Open addressing table of code + 1 (0 for an empty slot) */
+    private int[] table = new int[32];
+
+    /**
+     * Gets the code of the given bytes, adding them if they are new.
+     *
+     * @param b the bytes
+     * @param from the index of the first byte
+     * @param to the index after the last byte
+     * @return the code of the value
+     */
+    private int code(byte[] b, int from, int to) {
+      int h = 1;
+      for (int i = from; i < to; i++) {
+        h = 31 * h + b[i];
+      }
+      h ^= h >>> 16;
+      int slot = slot(h, b, from, to);
+      return table[slot] > 0 ? table[slot] - 1
+        : add(Arrays.copyOfRange(b, from, to), null, h, slot);
+    }
+
+    /**
+     * Gets the code of a value of another dictionary, adding it if it is
+     * new. The value's bytes, hash and String are shared, not recomputed.
+     *
+     * @param d the other dictionary
+     * @param code the code of the value in d
+     * @return the code of the value in this dictionary
+     */
+    private int code(Dictionary d, int code) {
+      byte[] v = d.bytes[code];
+      int h = d.hashes[code];
+      int slot = slot(h, v, 0, v.length);
+      return table[slot] > 0 ? table[slot] - 1
+        : add(v, d.values[code], h, slot);
+    }
+
+    /**
+     * Finds the slot of the given bytes, or the empty slot to add them in.
+     *
+     * @param h the hash of the bytes
+     * @return the slot
+     */
+    private int slot(int h, byte[] b, int from, int to) {
+      int mask = table.length - 1;
+      for (int i = h & mask;; i = (i + 1) & mask) {
+        int c = table[i] - 1;
+        if (c < 0 || (hashes[c] == h
+            && Arrays.equals(bytes[c], 0, bytes[c].length, b, from, to))) {
+          return i;
+        }
+      }
+    }
+
+    /**
+     * Adds the given bytes as a new value in the given slot.
+     *
+     * @param b the bytes of the value, kept as they are
+     * @param value the value, or null to decode it from v
+     * @param h the hash of the bytes
+     * @param slot the empty slot to add the value in
+     * @return the code of the value
+     */
+    private int add(byte[] b, String value, int h, int slot) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, 2 * size);
+        bytes = Arrays.copyOf(bytes, 2 * size);
+        hashes = Arrays.copyOf(hashes, 2 * size);
+      }
+      int c = size++;
+      bytes[c] = b;
+      values[c] = value != null ? value : new String(b, CHARSET);
+      hashes[c] = h;
+      table[slot] = c + 1;
+      if (2 * size > table.length) {
+        // keep the table at most half full
+        table = new int[2 * table.length];
+        int mask = table.length - 1;
+        for (int v = 0; v < size; v++) {
+          int i = hashes[v] & mask;
+          while (table[i] != 0) {
+            i = (i + 1) & mask;
+          }
+          table[i] = v + 1;
+        }
+      }
+      return c;
+    }
+
+    /** Gets the value with the given code */
+    private String value(int code) {
+      return values[code];
+    }
+
+    /** Gets the values by code */
+    private String[] values() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+}
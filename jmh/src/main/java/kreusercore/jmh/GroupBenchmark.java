@@ -0,0 +1,26 @@
+package kreusercore.jmh;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** Core.group of a chain, quadratic, up to 10k nodes */
+@State(Scope.Benchmark)
+public class GroupBenchmark extends OperationBenchmark {
+
+  @Param({"Core.group"})
+  public String benchmark;
+
+  @Param({"10", "100", "1000", "10000"})
+  public int size;
+
+  @Override
+  protected String benchmark() {
+    return benchmark;
+  }
+
+  @Override
+  protected int size() {
+    return size;
+  }
+}
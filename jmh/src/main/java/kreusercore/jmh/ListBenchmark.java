@@ -0,0 +1,27 @@
+package kreusercore.jmh;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** Adding to and sorting CoreList and ArrayList, up to 10M keys */
+@State(Scope.Benchmark)
+public class ListBenchmark extends OperationBenchmark {
+
+  @Param({"CoreList.add", "ArrayList.add", "CoreList.sorted",
+    "Collections.sort(copy)"})
+  public String benchmark;
+
+  @Param({"10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+  public int size;
+
+  @Override
+  protected String benchmark() {
+    return benchmark;
+  }
+
+  @Override
+  protected int size() {
+    return size;
+  }
+}
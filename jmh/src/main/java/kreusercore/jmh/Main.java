@@ -0,0 +1,41 @@
+package kreusercore.jmh;
+
+import java.util.Arrays;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*******************************************************************************
+ *
+ * Main runs the JMH benchmarks headless, taking the usual JMH command line
+ * options (-h lists them). Unless other profilers are given with -prof, it
+ * runs with the GC profiler (-prof gc), so that every result comes with its
+ * allocation rate in bytes per operation.
+ *
+ *   java -jar jmh/target/benchmarks.jar ListBenchmark -p size=1000
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+public class Main {
+
+  /**
+   * Runs the benchmarks.
+   *
+   * @param args the JMH command line options
+   */
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cli = new CommandLineOptions(args);
+    if (cli.shouldHelp() || cli.shouldList() || cli.shouldListProfilers()
+        || cli.shouldListResultFormats() || cli.shouldListWithParams()) {
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+    ChainedOptionsBuilder options = new OptionsBuilder().parent(cli);
+    if (!Arrays.asList(args).contains("-prof")) {
+      options.addProfiler(GCProfiler.class);
+    }
+    new Runner(options.build()).run();
+  }
+}
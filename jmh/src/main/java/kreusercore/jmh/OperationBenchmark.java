@@ -0,0 +1,64 @@
+package kreusercore.jmh;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*******************************************************************************
+ *
+ * OperationBenchmark runs one operation of CoreBenchmarks (a Core or CoreList
+ * hot path, or its closest JDK counterpart) per invocation. Its subclasses
+ * pick the benchmarks and the sizes they run at with @Param.
+ *
+ * KreuserCore lives in the default package, which a named package cannot
+ * import and JMH refuses to generate benchmarks in. The operation is
+ * therefore looked up by reflection once per trial; calling it is then a
+ * monomorphic interface call (one operation per forked JVM) that the JIT
+ * inlines like a direct call.
+ *
+ * @author Heinrich Kreuser
+ ******************************************************************************/
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public abstract class OperationBenchmark {
+
+  /** The operation measured */
+  private Supplier<Object> op;
+
+  /** @return the name of the benchmark (see CoreBenchmarks.NAMES) */
+  protected abstract String benchmark();
+
+  /** @return the input size of one operation */
+  protected abstract int size();
+
+  /** Builds the input and the operation of the benchmark */
+  @Setup(Level.Trial)
+  @SuppressWarnings("unchecked")
+  public void setup() throws ReflectiveOperationException {
+    Method operation = Class.forName("CoreBenchmarks")
+      .getMethod("operation", String.class, int.class);
+    op = (Supplier<Object>) operation.invoke(null, benchmark(), size());
+  }
+
+  /**
+   * Runs the operation once.
+   *
+   * @return the result, which JMH keeps alive
+   */
+  @Benchmark
+  public Object run() {
+    return op.get();
+  }
+}
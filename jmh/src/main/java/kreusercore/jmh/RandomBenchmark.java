@@ -0,0 +1,27 @@
+package kreusercore.jmh;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** Generating random doubles, up to 10M at once */
+@State(Scope.Benchmark)
+public class RandomBenchmark extends OperationBenchmark {
+
+  @Param({"Core.random", "CoreRandom.fill",
+    "SplittableRandom.nextDouble"})
+  public String benchmark;
+
+  @Param({"10", "100", "1000", "10000", "100000", "1000000", "10000000"})
+  public int size;
+
+  @Override
+  protected String benchmark() {
+    return benchmark;
+  }
+
+  @Override
+  protected int size() {
+    return size;
+  }
+}
@@ -0,0 +1,26 @@
+package kreusercore.jmh;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** Reading a file of lines, up to 1M lines */
+@State(Scope.Benchmark)
+public class ReadBenchmark extends OperationBenchmark {
+
+  @Param({"Core.readFrom", "Files.readAllLines"})
+  public String benchmark;
+
+  @Param({"10", "100", "1000", "10000", "100000", "1000000"})
+  public int size;
+
+  @Override
+  protected String benchmark() {
+    return benchmark;
+  }
+
+  @Override
+  protected int size() {
+    return size;
+  }
+}
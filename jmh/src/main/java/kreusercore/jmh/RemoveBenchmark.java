@@ -0,0 +1,26 @@
+package kreusercore.jmh;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** Removing every key in a shuffled order, quadratic, up to 100k keys */
+@State(Scope.Benchmark)
+public class RemoveBenchmark extends OperationBenchmark {
+
+  @Param({"CoreList.removeKey", "ArrayList.remove"})
+  public String benchmark;
+
+  @Param({"10", "100", "1000", "10000", "100000"})
+  public int size;
+
+  @Override
+  protected String benchmark() {
+    return benchmark;
+  }
+
+  @Override
+  protected int size() {
+    return size;
+  }
+}
@@ -0,0 +1,26 @@
+package kreusercore.jmh;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/** Sorting the keys of a map by value, up to 1M keys */
+@State(Scope.Benchmark)
+public class SortBenchmark extends OperationBenchmark {
+
+  @Param({"Core.sort", "ArrayList.sort(byValue)"})
+  public String benchmark;
+
+  @Param({"10", "100", "1000", "10000", "100000", "1000000"})
+  public int size;
+
+  @Override
+  protected String benchmark() {
+    return benchmark;
+  }
+
+  @Override
+  protected int size() {
+    return size;
+  }
+}